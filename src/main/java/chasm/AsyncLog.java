@@ -0,0 +1,119 @@
+package chasm;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Log lines are queued in a bounded ring buffer and written by a background thread.
+// Lines are dropped instead of blocking the caller if the buffer is full.
+public final class AsyncLog implements Closeable {
+    private static final int CAPACITY = 8192;
+    private static final String STOP = new String("");
+
+    private final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Writer out;
+    private final Thread flusher;
+
+    public AsyncLog(final OutputStream o) {
+        out = new BufferedWriter(new OutputStreamWriter(o, StandardCharsets.UTF_8));
+        flusher = new Thread(this::run, "chasm-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void log(final String line) {
+        if (!queue.offer(line))
+            dropped.incrementAndGet();
+    }
+
+    // Returns a stream, which logs every line prefixed by the tag
+    public OutputStream stream(final String tag) {
+        return new LineOutputStream(tag);
+    }
+
+    private void run() {
+        final ArrayList<String> lines = new ArrayList<>();
+        try {
+            for (;;) {
+                lines.add(queue.take());
+                queue.drainTo(lines);
+                for (final String line : lines) {
+                    if (line == STOP) {
+                        out.flush();
+                        return;
+                    }
+                    out.write(line);
+                    out.write('\n');
+                }
+                lines.clear();
+                final long n = dropped.getAndSet(0);
+                if (n > 0)
+                    out.write(n + " log lines dropped\n");
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(STOP);
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+    }
+
+    private final class LineOutputStream extends OutputStream {
+        private final String tag;
+        private byte[] buf = new byte[128];
+        private int len = 0;
+
+        LineOutputStream(final String t) {
+            tag = t;
+        }
+
+        @Override
+        public void write(final int data) {
+            if (data == '\n') {
+                line();
+            } else {
+                if (len == buf.length)
+                    buf = Arrays.copyOf(buf, 2 * len);
+                buf[len++] = (byte)data;
+            }
+        }
+
+        @Override
+        public void write(final byte[] data, final int off, final int n) {
+            for (int i = off; i < off + n; ++i)
+                write(data[i]);
+        }
+
+        @Override
+        public void close() {
+            if (len > 0)
+                line();
+        }
+
+        private void line() {
+            final int n = len > 0 && buf[len - 1] == '\r' ? len - 1 : len;
+            log(tag + new String(buf, 0, n, StandardCharsets.UTF_8));
+            len = 0;
+        }
+    }
+}
@@ -1,9 +1,26 @@
 package chasm;
 
+import java.util.HashMap;
+
 public final class ByteClassLoader extends ClassLoader {
+    private final HashMap<String, byte[]> classes = new HashMap<>();
+
     public Class<?> loadClass(final byte[] data) {
         Class<?> c = defineClass(null, data, 0, data.length);
         resolveClass(c);
         return c;
     }
+
+    // Registers a class by internal name, which is defined on first use
+    public synchronized void addClass(final String name, final byte[] data) {
+        classes.put(name.replace('/', '.'), data);
+    }
+
+    @Override
+    protected synchronized Class<?> findClass(final String name) throws ClassNotFoundException {
+        final byte[] data = classes.remove(name);
+        if (data == null)
+            throw new ClassNotFoundException(name);
+        return defineClass(name, data, 0, data.length);
+    }
 }
@@ -0,0 +1,442 @@
+package chasm;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import static org.objectweb.asm.Opcodes.*;
+
+// Fluent counterpart of the chasm forms, which drives a ClassVisitor directly.
+// Access flags and labels are given symbolically like in ClassParser, e.g.
+// clazz(v, V1_8, "public super", "Foo", null, "java/lang/Object")
+//     .method("public static", "f", "()V", null).code().goTo("L0").label("L0").returnVoid().end().end()
+//     .end();
+public final class ClassBuilder {
+    private final ClassVisitor cv;
+
+    private ClassBuilder(final ClassVisitor v) {
+        cv = v;
+    }
+
+    public static ClassBuilder clazz(final ClassVisitor v, final int version, final String access, final String name,
+                                     final String signature, final String superName, final String... interfaces) {
+        v.visit(version, access(access), name, signature, superName, interfaces);
+        return new ClassBuilder(v);
+    }
+
+    public static int access(final String flags) {
+        int a = 0;
+        for (final String s : flags.split(" ")) {
+            if (s.isEmpty())
+                continue;
+            final int flag = ClassParser.accessFlag(s);
+            if (flag == 0)
+                throw new IllegalArgumentException("Invalid access token " + s);
+            a |= flag;
+        }
+        return a;
+    }
+
+    public static Handle handle(final String tag, final String owner, final String name, final String descriptor,
+                                final boolean isInterface) {
+        final int t = ClassParser.handleTag(tag);
+        if (t < 0)
+            throw new IllegalArgumentException("Invalid tag " + tag);
+        return new Handle(t, owner, name, descriptor, isInterface);
+    }
+
+    public ClassVisitor visitor() {
+        return cv;
+    }
+
+    public ClassBuilder source(final String file, final String debug) {
+        cv.visitSource(file, debug);
+        return this;
+    }
+
+    public ClassBuilder innerClass(final String name, final String outerName, final String innerName, final String access) {
+        cv.visitInnerClass(name, outerName, innerName, access(access));
+        return this;
+    }
+
+    public ClassBuilder outerClass(final String owner, final String name, final String descriptor) {
+        cv.visitOuterClass(owner, name, descriptor);
+        return this;
+    }
+
+    public ClassBuilder field(final String access, final String name, final String descriptor, final String signature,
+                              final Object value) {
+        final FieldVisitor f = cv.visitField(access(access), name, descriptor, signature, value);
+        f.visitEnd();
+        return this;
+    }
+
+    public Method method(final String access, final String name, final String descriptor, final String signature,
+                         final String... exceptions) {
+        return new Method(this, cv.visitMethod(access(access), name, descriptor, signature,
+                                               exceptions.length == 0 ? null : exceptions));
+    }
+
+    public ClassVisitor end() {
+        cv.visitEnd();
+        return cv;
+    }
+
+    public static final class Method {
+        private final ClassBuilder owner;
+        private final MethodVisitor mv;
+        private Code code;
+
+        private Method(final ClassBuilder o, final MethodVisitor m) {
+            owner = o;
+            mv = m;
+        }
+
+        public MethodVisitor visitor() {
+            return mv;
+        }
+
+        public Method param(final String name, final String access) {
+            mv.visitParameter(name, access(access));
+            return this;
+        }
+
+        public Code code() {
+            if (code != null)
+                throw new IllegalStateException("Method has more than one code block");
+            mv.visitCode();
+            code = new Code(this, mv);
+            return code;
+        }
+
+        public ClassBuilder end() {
+            mv.visitEnd();
+            return owner;
+        }
+    }
+
+    public static final class Code {
+        private final Method method;
+        private final MethodVisitor v;
+        private final Labels labels = new Labels();
+
+        private Code(final Method m, final MethodVisitor mv) {
+            method = m;
+            v = mv;
+        }
+
+        public Label labelOf(final String name) {
+            final Label label = labels.get(name);
+            if (label == null)
+                throw new IllegalArgumentException("Expected label, but got " + name);
+            return label;
+        }
+
+        public Code label(final String name) {
+            v.visitLabel(labelOf(name));
+            return this;
+        }
+
+        public Code line(final int line, final String label) {
+            v.visitLineNumber(line, labelOf(label));
+            return this;
+        }
+
+        public Code tryCatch(final String start, final String end, final String handler, final String type) {
+            v.visitTryCatchBlock(labelOf(start), labelOf(end), labelOf(handler), type);
+            return this;
+        }
+
+        public Code local(final String name, final String descriptor, final String signature,
+                          final String start, final String end, final int index) {
+            v.visitLocalVariable(name, descriptor, signature, labelOf(start), labelOf(end), index);
+            return this;
+        }
+
+        // Frame items use the ASM conventions, TOP, INTEGER, ... for the primitive types
+        // and labelOf for uninitialized values
+        public Code frame(final int type, final Object[] local, final Object[] stack) {
+            v.visitFrame(type, local.length, local, stack.length, stack);
+            return this;
+        }
+
+        public Code maxs(final int maxStack, final int maxLocals) {
+            v.visitMaxs(maxStack, maxLocals);
+            return this;
+        }
+
+        public Method end() {
+            return method;
+        }
+
+        private Label[] labels(final String[] names) {
+            final Label[] a = new Label[names.length];
+            for (int i = 0; i < names.length; ++i)
+                a[i] = labelOf(names[i]);
+            return a;
+        }
+
+        private Code insn(final int opcode) {
+            v.visitInsn(opcode);
+            return this;
+        }
+
+        private Code varInsn(final int opcode, final int var) {
+            v.visitVarInsn(opcode, var);
+            return this;
+        }
+
+        private Code intInsn(final int opcode, final int operand) {
+            v.visitIntInsn(opcode, operand);
+            return this;
+        }
+
+        private Code jumpInsn(final int opcode, final String label) {
+            v.visitJumpInsn(opcode, labelOf(label));
+            return this;
+        }
+
+        private Code typeInsn(final int opcode, final String type) {
+            v.visitTypeInsn(opcode, type);
+            return this;
+        }
+
+        private Code fieldInsn(final int opcode, final String owner, final String name, final String descriptor) {
+            v.visitFieldInsn(opcode, owner, name, descriptor);
+            return this;
+        }
+
+        private Code methodInsn(final int opcode, final String owner, final String name, final String descriptor,
+                                final boolean isInterface) {
+            v.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            return this;
+        }
+
+        public Code nop() { return insn(NOP); }
+        public Code aconstNull() { return insn(ACONST_NULL); }
+        public Code iconstM1() { return insn(ICONST_M1); }
+        public Code iconst0() { return insn(ICONST_0); }
+        public Code iconst1() { return insn(ICONST_1); }
+        public Code iconst2() { return insn(ICONST_2); }
+        public Code iconst3() { return insn(ICONST_3); }
+        public Code iconst4() { return insn(ICONST_4); }
+        public Code iconst5() { return insn(ICONST_5); }
+        public Code lconst0() { return insn(LCONST_0); }
+        public Code lconst1() { return insn(LCONST_1); }
+        public Code fconst0() { return insn(FCONST_0); }
+        public Code fconst1() { return insn(FCONST_1); }
+        public Code fconst2() { return insn(FCONST_2); }
+        public Code dconst0() { return insn(DCONST_0); }
+        public Code dconst1() { return insn(DCONST_1); }
+        public Code bipush(final int operand) { return intInsn(BIPUSH, operand); }
+        public Code sipush(final int operand) { return intInsn(SIPUSH, operand); }
+
+        public Code ldc(final Object value) {
+            v.visitLdcInsn(value);
+            return this;
+        }
+
+        public Code iload(final int var) { return varInsn(ILOAD, var); }
+        public Code lload(final int var) { return varInsn(LLOAD, var); }
+        public Code fload(final int var) { return varInsn(FLOAD, var); }
+        public Code dload(final int var) { return varInsn(DLOAD, var); }
+        public Code aload(final int var) { return varInsn(ALOAD, var); }
+        public Code iaload() { return insn(IALOAD); }
+        public Code laload() { return insn(LALOAD); }
+        public Code faload() { return insn(FALOAD); }
+        public Code daload() { return insn(DALOAD); }
+        public Code aaload() { return insn(AALOAD); }
+        public Code baload() { return insn(BALOAD); }
+        public Code caload() { return insn(CALOAD); }
+        public Code saload() { return insn(SALOAD); }
+        public Code istore(final int var) { return varInsn(ISTORE, var); }
+        public Code lstore(final int var) { return varInsn(LSTORE, var); }
+        public Code fstore(final int var) { return varInsn(FSTORE, var); }
+        public Code dstore(final int var) { return varInsn(DSTORE, var); }
+        public Code astore(final int var) { return varInsn(ASTORE, var); }
+        public Code iastore() { return insn(IASTORE); }
+        public Code lastore() { return insn(LASTORE); }
+        public Code fastore() { return insn(FASTORE); }
+        public Code dastore() { return insn(DASTORE); }
+        public Code aastore() { return insn(AASTORE); }
+        public Code bastore() { return insn(BASTORE); }
+        public Code castore() { return insn(CASTORE); }
+        public Code sastore() { return insn(SASTORE); }
+        public Code pop() { return insn(POP); }
+        public Code pop2() { return insn(POP2); }
+        public Code dup() { return insn(DUP); }
+        public Code dupX1() { return insn(DUP_X1); }
+        public Code dupX2() { return insn(DUP_X2); }
+        public Code dup2() { return insn(DUP2); }
+        public Code dup2X1() { return insn(DUP2_X1); }
+        public Code dup2X2() { return insn(DUP2_X2); }
+        public Code swap() { return insn(SWAP); }
+        public Code iadd() { return insn(IADD); }
+        public Code ladd() { return insn(LADD); }
+        public Code fadd() { return insn(FADD); }
+        public Code dadd() { return insn(DADD); }
+        public Code isub() { return insn(ISUB); }
+        public Code lsub() { return insn(LSUB); }
+        public Code fsub() { return insn(FSUB); }
+        public Code dsub() { return insn(DSUB); }
+        public Code imul() { return insn(IMUL); }
+        public Code lmul() { return insn(LMUL); }
+        public Code fmul() { return insn(FMUL); }
+        public Code dmul() { return insn(DMUL); }
+        public Code idiv() { return insn(IDIV); }
+        public Code ldiv() { return insn(LDIV); }
+        public Code fdiv() { return insn(FDIV); }
+        public Code ddiv() { return insn(DDIV); }
+        public Code irem() { return insn(IREM); }
+        public Code lrem() { return insn(LREM); }
+        public Code frem() { return insn(FREM); }
+        public Code drem() { return insn(DREM); }
+        public Code ineg() { return insn(INEG); }
+        public Code lneg() { return insn(LNEG); }
+        public Code fneg() { return insn(FNEG); }
+        public Code dneg() { return insn(DNEG); }
+        public Code ishl() { return insn(ISHL); }
+        public Code lshl() { return insn(LSHL); }
+        public Code ishr() { return insn(ISHR); }
+        public Code lshr() { return insn(LSHR); }
+        public Code iushr() { return insn(IUSHR); }
+        public Code lushr() { return insn(LUSHR); }
+        public Code iand() { return insn(IAND); }
+        public Code land() { return insn(LAND); }
+        public Code ior() { return insn(IOR); }
+        public Code lor() { return insn(LOR); }
+        public Code ixor() { return insn(IXOR); }
+        public Code lxor() { return insn(LXOR); }
+
+        public Code iinc(final int var, final int increment) {
+            v.visitIincInsn(var, increment);
+            return this;
+        }
+
+        public Code i2l() { return insn(I2L); }
+        public Code i2f() { return insn(I2F); }
+        public Code i2d() { return insn(I2D); }
+        public Code l2i() { return insn(L2I); }
+        public Code l2f() { return insn(L2F); }
+        public Code l2d() { return insn(L2D); }
+        public Code f2i() { return insn(F2I); }
+        public Code f2l() { return insn(F2L); }
+        public Code f2d() { return insn(F2D); }
+        public Code d2i() { return insn(D2I); }
+        public Code d2l() { return insn(D2L); }
+        public Code d2f() { return insn(D2F); }
+        public Code i2b() { return insn(I2B); }
+        public Code i2c() { return insn(I2C); }
+        public Code i2s() { return insn(I2S); }
+        public Code lcmp() { return insn(LCMP); }
+        public Code fcmpl() { return insn(FCMPL); }
+        public Code fcmpg() { return insn(FCMPG); }
+        public Code dcmpl() { return insn(DCMPL); }
+        public Code dcmpg() { return insn(DCMPG); }
+        public Code ifeq(final String label) { return jumpInsn(IFEQ, label); }
+        public Code ifne(final String label) { return jumpInsn(IFNE, label); }
+        public Code iflt(final String label) { return jumpInsn(IFLT, label); }
+        public Code ifge(final String label) { return jumpInsn(IFGE, label); }
+        public Code ifgt(final String label) { return jumpInsn(IFGT, label); }
+        public Code ifle(final String label) { return jumpInsn(IFLE, label); }
+        public Code ifIcmpeq(final String label) { return jumpInsn(IF_ICMPEQ, label); }
+        public Code ifIcmpne(final String label) { return jumpInsn(IF_ICMPNE, label); }
+        public Code ifIcmplt(final String label) { return jumpInsn(IF_ICMPLT, label); }
+        public Code ifIcmpge(final String label) { return jumpInsn(IF_ICMPGE, label); }
+        public Code ifIcmpgt(final String label) { return jumpInsn(IF_ICMPGT, label); }
+        public Code ifIcmple(final String label) { return jumpInsn(IF_ICMPLE, label); }
+        public Code ifAcmpeq(final String label) { return jumpInsn(IF_ACMPEQ, label); }
+        public Code ifAcmpne(final String label) { return jumpInsn(IF_ACMPNE, label); }
+        public Code goTo(final String label) { return jumpInsn(GOTO, label); }
+        public Code jsr(final String label) { return jumpInsn(JSR, label); }
+        public Code ret(final int var) { return varInsn(RET, var); }
+
+        public Code tableswitch(final int min, final int max, final String dflt, final String... table) {
+            v.visitTableSwitchInsn(min, max, labelOf(dflt), labels(table));
+            return this;
+        }
+
+        public Code lookupswitch(final String dflt, final int[] keys, final String... table) {
+            if (keys.length != table.length)
+                throw new IllegalArgumentException("Expected " + keys.length + " labels, but got " + table.length);
+            v.visitLookupSwitchInsn(labelOf(dflt), keys, labels(table));
+            return this;
+        }
+
+        public Code ireturn() { return insn(IRETURN); }
+        public Code lreturn() { return insn(LRETURN); }
+        public Code freturn() { return insn(FRETURN); }
+        public Code dreturn() { return insn(DRETURN); }
+        public Code areturn() { return insn(ARETURN); }
+        public Code returnVoid() { return insn(RETURN); }
+
+        public Code getstatic(final String owner, final String name, final String descriptor) {
+            return fieldInsn(GETSTATIC, owner, name, descriptor);
+        }
+
+        public Code putstatic(final String owner, final String name, final String descriptor) {
+            return fieldInsn(PUTSTATIC, owner, name, descriptor);
+        }
+
+        public Code getfield(final String owner, final String name, final String descriptor) {
+            return fieldInsn(GETFIELD, owner, name, descriptor);
+        }
+
+        public Code putfield(final String owner, final String name, final String descriptor) {
+            return fieldInsn(PUTFIELD, owner, name, descriptor);
+        }
+
+        public Code invokevirtual(final String owner, final String name, final String descriptor) {
+            return methodInsn(INVOKEVIRTUAL, owner, name, descriptor, false);
+        }
+
+        public Code invokespecial(final String owner, final String name, final String descriptor) {
+            return methodInsn(INVOKESPECIAL, owner, name, descriptor, false);
+        }
+
+        public Code invokestatic(final String owner, final String name, final String descriptor) {
+            return methodInsn(INVOKESTATIC, owner, name, descriptor, false);
+        }
+
+        public Code invokestatic(final String owner, final String name, final String descriptor,
+                                 final boolean isInterface) {
+            return methodInsn(INVOKESTATIC, owner, name, descriptor, isInterface);
+        }
+
+        public Code invokeinterface(final String owner, final String name, final String descriptor) {
+            return methodInsn(INVOKEINTERFACE, owner, name, descriptor, true);
+        }
+
+        public Code invokedynamic(final String name, final String descriptor, final Handle bootstrapMethodHandle,
+                                  final Object... bootstrapMethodArguments) {
+            v.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+            return this;
+        }
+
+        public Code newInstance(final String type) { return typeInsn(NEW, type); }
+
+        public Code newarray(final String type) {
+            final int t = ClassParser.arrayType(type);
+            if (t < 0)
+                throw new IllegalArgumentException("Invalid array type " + type);
+            return intInsn(NEWARRAY, t);
+        }
+
+        public Code anewarray(final String type) { return typeInsn(ANEWARRAY, type); }
+        public Code arraylength() { return insn(ARRAYLENGTH); }
+        public Code athrow() { return insn(ATHROW); }
+        public Code checkcast(final String type) { return typeInsn(CHECKCAST, type); }
+        public Code instanceOf(final String type) { return typeInsn(INSTANCEOF, type); }
+        public Code monitorenter() { return insn(MONITORENTER); }
+        public Code monitorexit() { return insn(MONITOREXIT); }
+
+        public Code multianewarray(final String descriptor, final int numDimensions) {
+            v.visitMultiANewArrayInsn(descriptor, numDimensions);
+            return this;
+        }
+
+        public Code ifnull(final String label) { return jumpInsn(IFNULL, label); }
+        public Code ifnonnull(final String label) { return jumpInsn(IFNONNULL, label); }
+    }
+}
@@ -0,0 +1,69 @@
+package chasm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Memory-bounded LRU cache, which is shared by the requests of the server
+public final class ClassCache {
+    private static final class Entry {
+        private final Object value;
+        private final long size;
+
+        Entry(final Object v, final long s) {
+            value = v;
+            size = s;
+        }
+    }
+
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+    private long size = 0;
+
+    public ClassCache(final long c) {
+        capacity = c;
+    }
+
+    public synchronized Object get(final String key) {
+        final Entry e = map.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.value;
+    }
+
+    public synchronized void put(final String key, final Object value, final long bytes) {
+        if (bytes > capacity)
+            return;
+        final Entry old = map.put(key, new Entry(value, bytes));
+        if (old != null)
+            size -= old.size;
+        size += bytes;
+        final Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while (size > capacity) {
+            size -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "Cache hits " + getHits() + ", misses " + getMisses() + ", size " + getSize();
+    }
+}
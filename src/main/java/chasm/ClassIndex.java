@@ -0,0 +1,90 @@
+package chasm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class ClassIndex {
+    private static final String HEADER = "chasm-index";
+
+    public static final class Block {
+        private final long offset, length;
+        private final int line;
+
+        Block(final long o, final long len, final int l) {
+            offset = o;
+            length = len;
+            line = l;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getLine() {
+            return line;
+        }
+    }
+
+    private final LinkedHashMap<String, Block> entries = new LinkedHashMap<>();
+
+    public static Path path(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    public Block get(final String name) {
+        return entries.get(name);
+    }
+
+    public void add(final String name, final long offset, final long length, final int line) {
+        entries.put(name, new Block(offset, length, line));
+    }
+
+    public void write(final Path file) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(path(file), StandardCharsets.UTF_8)) {
+            w.write(HEADER + " " + Files.size(file) + " " + Files.getLastModifiedTime(file).toMillis() + "\n");
+            for (final Map.Entry<String, Block> e : entries.entrySet()) {
+                final Block x = e.getValue();
+                w.write(x.offset + " " + x.length + " " + x.line + " " + Escape.escapeString(e.getKey()) + "\n");
+            }
+        }
+    }
+
+    // Returns null if there is no index or if the index does not match the file
+    public static ClassIndex read(final Path file) throws IOException {
+        final ClassIndex index = new ClassIndex();
+        try (BufferedReader r = Files.newBufferedReader(path(file), StandardCharsets.UTF_8)) {
+            final String first = r.readLine();
+            if (first == null)
+                return null;
+            final String[] header = first.split(" ");
+            if (header.length != 3 || !header[0].equals(HEADER)
+                || Long.parseLong(header[1]) != Files.size(file)
+                || Long.parseLong(header[2]) != Files.getLastModifiedTime(file).toMillis())
+                return null;
+            String line;
+            while ((line = r.readLine()) != null) {
+                final String[] f = line.split(" ", 4);
+                final String name = Escape.unescapeString(f[3]);
+                if (name == null)
+                    throw new IOException("Invalid class index " + path(file));
+                index.add(name, Long.parseLong(f[0]), Long.parseLong(f[1]), Integer.parseInt(f[2]));
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Invalid class index " + path(file), e);
+        }
+        return index;
+    }
+}
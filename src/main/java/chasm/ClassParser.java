@@ -3,10 +3,6 @@ package chasm;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassVisitor;
@@ -16,46 +12,172 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.TypePath;
-import org.objectweb.asm.util.Printer;
 import static org.objectweb.asm.Opcodes.*;
 
 public final class ClassParser implements ClassInput {
-    private static final HashMap<String, Integer> OPCODES = new HashMap<>();
+    private static final byte
+        INSN        = 1,
+        VAR_INSN    = 2,
+        INT_INSN    = 3,
+        JUMP_INSN   = 4,
+        FIELD_INSN  = 5,
+        METHOD_INSN = 6;
+
+    private static final byte[] INSN_KIND = new byte[256];
     static {
-        for (int i = 0; i < Printer.OPCODES.length; ++i)
-            OPCODES.put(Printer.OPCODES[i].toLowerCase(), i);
-    }
-
-    private static final HashSet<Integer> INSN = hashSet(
-                NOP, ACONST_NULL, ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5,
-                LCONST_0, LCONST_1, FCONST_0, FCONST_1, FCONST_2,
-                DCONST_0, DCONST_1, IALOAD, LALOAD, FALOAD, DALOAD, AALOAD, BALOAD, CALOAD, SALOAD,
-                IASTORE, LASTORE, FASTORE, DASTORE, AASTORE, BASTORE, CASTORE, SASTORE,
-                POP, POP2, DUP, DUP_X1, DUP_X2, DUP2, DUP2_X1, DUP2_X2,
-                SWAP, IADD, LADD, FADD, DADD, ISUB, LSUB, FSUB, DSUB, IMUL, LMUL, FMUL, DMUL,
-                IDIV, LDIV, FDIV, DDIV, IREM, LREM, FREM, DREM, INEG, LNEG, FNEG, DNEG,
-                ISHL, LSHL, ISHR, LSHR, IUSHR, LUSHR, IAND, LAND, IOR, LOR, IXOR, LXOR,
-                I2L, I2F, I2D, L2I, L2F, L2D, F2I, F2L, F2D, D2I, D2L, D2F, I2B, I2C,
-                I2S, LCMP, FCMPL, FCMPG, DCMPL, DCMPG,
-                IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, RETURN, ARRAYLENGTH, ATHROW,
-                MONITORENTER, MONITOREXIT),
-        VAR_INSN = hashSet(ILOAD, LLOAD, FLOAD, DLOAD, ALOAD, ISTORE, LSTORE, FSTORE, DSTORE, ASTORE, RET),
-        METHOD_INSN = hashSet(INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE),
-        INT_INSN = hashSet(BIPUSH, SIPUSH, NEWARRAY),
-        JUMP_INSN = hashSet(IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE,
-                           IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE, GOTO, JSR, IFNULL, IFNONNULL),
-        FIELD_INSN = hashSet(GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD);
-
-    private static HashSet<Integer> hashSet(final Integer... i) {
-        return new HashSet<Integer>(Arrays.asList(i));
+        kind(INSN, NOP, ACONST_NULL, ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5,
+             LCONST_0, LCONST_1, FCONST_0, FCONST_1, FCONST_2,
+             DCONST_0, DCONST_1, IALOAD, LALOAD, FALOAD, DALOAD, AALOAD, BALOAD, CALOAD, SALOAD,
+             IASTORE, LASTORE, FASTORE, DASTORE, AASTORE, BASTORE, CASTORE, SASTORE,
+             POP, POP2, DUP, DUP_X1, DUP_X2, DUP2, DUP2_X1, DUP2_X2,
+             SWAP, IADD, LADD, FADD, DADD, ISUB, LSUB, FSUB, DSUB, IMUL, LMUL, FMUL, DMUL,
+             IDIV, LDIV, FDIV, DDIV, IREM, LREM, FREM, DREM, INEG, LNEG, FNEG, DNEG,
+             ISHL, LSHL, ISHR, LSHR, IUSHR, LUSHR, IAND, LAND, IOR, LOR, IXOR, LXOR,
+             I2L, I2F, I2D, L2I, L2F, L2D, F2I, F2L, F2D, D2I, D2L, D2F, I2B, I2C,
+             I2S, LCMP, FCMPL, FCMPG, DCMPL, DCMPG,
+             IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, RETURN, ARRAYLENGTH, ATHROW,
+             MONITORENTER, MONITOREXIT);
+        kind(VAR_INSN, ILOAD, LLOAD, FLOAD, DLOAD, ALOAD, ISTORE, LSTORE, FSTORE, DSTORE, ASTORE, RET);
+        kind(METHOD_INSN, INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE);
+        kind(INT_INSN, BIPUSH, SIPUSH, NEWARRAY);
+        kind(JUMP_INSN, IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE,
+             IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE, GOTO, JSR, IFNULL, IFNONNULL);
+        kind(FIELD_INSN, GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD);
+    }
+
+    private static void kind(final byte k, final int... opcodes) {
+        for (final int op : opcodes)
+            INSN_KIND[op] = k;
+    }
+
+    static int opcode(final String name) {
+        switch (name) {
+        case "nop": return NOP;                         case "aconst_null": return ACONST_NULL;
+        case "iconst_m1": return ICONST_M1;             case "iconst_0": return ICONST_0;
+        case "iconst_1": return ICONST_1;               case "iconst_2": return ICONST_2;
+        case "iconst_3": return ICONST_3;               case "iconst_4": return ICONST_4;
+        case "iconst_5": return ICONST_5;               case "lconst_0": return LCONST_0;
+        case "lconst_1": return LCONST_1;               case "fconst_0": return FCONST_0;
+        case "fconst_1": return FCONST_1;               case "fconst_2": return FCONST_2;
+        case "dconst_0": return DCONST_0;               case "dconst_1": return DCONST_1;
+        case "bipush": return BIPUSH;                   case "sipush": return SIPUSH;
+        case "ldc": return LDC;                         case "iload": return ILOAD;
+        case "lload": return LLOAD;                     case "fload": return FLOAD;
+        case "dload": return DLOAD;                     case "aload": return ALOAD;
+        case "iaload": return IALOAD;                   case "laload": return LALOAD;
+        case "faload": return FALOAD;                   case "daload": return DALOAD;
+        case "aaload": return AALOAD;                   case "baload": return BALOAD;
+        case "caload": return CALOAD;                   case "saload": return SALOAD;
+        case "istore": return ISTORE;                   case "lstore": return LSTORE;
+        case "fstore": return FSTORE;                   case "dstore": return DSTORE;
+        case "astore": return ASTORE;                   case "iastore": return IASTORE;
+        case "lastore": return LASTORE;                 case "fastore": return FASTORE;
+        case "dastore": return DASTORE;                 case "aastore": return AASTORE;
+        case "bastore": return BASTORE;                 case "castore": return CASTORE;
+        case "sastore": return SASTORE;                 case "pop": return POP;
+        case "pop2": return POP2;                       case "dup": return DUP;
+        case "dup_x1": return DUP_X1;                   case "dup_x2": return DUP_X2;
+        case "dup2": return DUP2;                       case "dup2_x1": return DUP2_X1;
+        case "dup2_x2": return DUP2_X2;                 case "swap": return SWAP;
+        case "iadd": return IADD;                       case "ladd": return LADD;
+        case "fadd": return FADD;                       case "dadd": return DADD;
+        case "isub": return ISUB;                       case "lsub": return LSUB;
+        case "fsub": return FSUB;                       case "dsub": return DSUB;
+        case "imul": return IMUL;                       case "lmul": return LMUL;
+        case "fmul": return FMUL;                       case "dmul": return DMUL;
+        case "idiv": return IDIV;                       case "ldiv": return LDIV;
+        case "fdiv": return FDIV;                       case "ddiv": return DDIV;
+        case "irem": return IREM;                       case "lrem": return LREM;
+        case "frem": return FREM;                       case "drem": return DREM;
+        case "ineg": return INEG;                       case "lneg": return LNEG;
+        case "fneg": return FNEG;                       case "dneg": return DNEG;
+        case "ishl": return ISHL;                       case "lshl": return LSHL;
+        case "ishr": return ISHR;                       case "lshr": return LSHR;
+        case "iushr": return IUSHR;                     case "lushr": return LUSHR;
+        case "iand": return IAND;                       case "land": return LAND;
+        case "ior": return IOR;                         case "lor": return LOR;
+        case "ixor": return IXOR;                       case "lxor": return LXOR;
+        case "iinc": return IINC;                       case "i2l": return I2L;
+        case "i2f": return I2F;                         case "i2d": return I2D;
+        case "l2i": return L2I;                         case "l2f": return L2F;
+        case "l2d": return L2D;                         case "f2i": return F2I;
+        case "f2l": return F2L;                         case "f2d": return F2D;
+        case "d2i": return D2I;                         case "d2l": return D2L;
+        case "d2f": return D2F;                         case "i2b": return I2B;
+        case "i2c": return I2C;                         case "i2s": return I2S;
+        case "lcmp": return LCMP;                       case "fcmpl": return FCMPL;
+        case "fcmpg": return FCMPG;                     case "dcmpl": return DCMPL;
+        case "dcmpg": return DCMPG;                     case "ifeq": return IFEQ;
+        case "ifne": return IFNE;                       case "iflt": return IFLT;
+        case "ifge": return IFGE;                       case "ifgt": return IFGT;
+        case "ifle": return IFLE;                       case "if_icmpeq": return IF_ICMPEQ;
+        case "if_icmpne": return IF_ICMPNE;             case "if_icmplt": return IF_ICMPLT;
+        case "if_icmpge": return IF_ICMPGE;             case "if_icmpgt": return IF_ICMPGT;
+        case "if_icmple": return IF_ICMPLE;             case "if_acmpeq": return IF_ACMPEQ;
+        case "if_acmpne": return IF_ACMPNE;             case "goto": return GOTO;
+        case "jsr": return JSR;                         case "ret": return RET;
+        case "tableswitch": return TABLESWITCH;         case "lookupswitch": return LOOKUPSWITCH;
+        case "ireturn": return IRETURN;                 case "lreturn": return LRETURN;
+        case "freturn": return FRETURN;                 case "dreturn": return DRETURN;
+        case "areturn": return ARETURN;                 case "return": return RETURN;
+        case "getstatic": return GETSTATIC;             case "putstatic": return PUTSTATIC;
+        case "getfield": return GETFIELD;               case "putfield": return PUTFIELD;
+        case "invokevirtual": return INVOKEVIRTUAL;     case "invokespecial": return INVOKESPECIAL;
+        case "invokestatic": return INVOKESTATIC;       case "invokeinterface": return INVOKEINTERFACE;
+        case "invokedynamic": return INVOKEDYNAMIC;     case "new": return NEW;
+        case "newarray": return NEWARRAY;               case "anewarray": return ANEWARRAY;
+        case "arraylength": return ARRAYLENGTH;         case "athrow": return ATHROW;
+        case "checkcast": return CHECKCAST;             case "instanceof": return INSTANCEOF;
+        case "monitorenter": return MONITORENTER;       case "monitorexit": return MONITOREXIT;
+        case "multianewarray": return MULTIANEWARRAY;   case "ifnull": return IFNULL;
+        case "ifnonnull": return IFNONNULL;
+        default: return -1;
+        }
+    }
+
+    static int arrayType(final String s) {
+        switch (s) {
+        case "Z": return T_BOOLEAN;
+        case "C": return T_CHAR;
+        case "F": return T_FLOAT;
+        case "D": return T_DOUBLE;
+        case "B": return T_BYTE;
+        case "S": return T_SHORT;
+        case "I": return T_INT;
+        case "J": return T_LONG;
+        default: return -1;
+        }
     }
 
     private Reader r;
-    private SExpParser p;
+    private final SExpParser p;
+    private final Labels labels = new Labels();
+    private int[] ints = new int[64];
+    private int intTop;
+    private Object[] objs = new Object[64];
+    private int objTop;
 
     public ClassParser(final Reader reader) {
+        this(reader, 0);
+    }
+
+    public ClassParser(final Reader reader, final int line) {
         r = reader;
-        p = new SExpParser(reader);
+        p = new SExpParser(reader, line);
+    }
+
+    // Starts parsing another reader, keeping the buffers and tables
+    public void reset(final Reader reader, final int line) {
+        r = reader;
+        p.reset(reader, line);
+        labels.clear();
+        if (objs.length > Contexts.MAX_RETAINED)
+            objs = new Object[64];
+        else
+            Arrays.fill(objs, null);
+        if (ints.length > Contexts.MAX_RETAINED)
+            ints = new int[64];
+        intTop = objTop = 0;
     }
 
     @Override
@@ -65,10 +187,18 @@ public final class ClassParser implements ClassInput {
 
     @Override
     public boolean read(final ClassVisitor v) {
+        try (Events.Span span = Events.phase("parse")) {
+            return read(v, span);
+        }
+    }
+
+    private boolean read(final ClassVisitor v, final Events.Span span) {
         p.block("class");
+        p.clearAliases();
         final int version = p.intVal();
         final int access = access();
         final String name = p.sym();
+        span.setClassName(name);
         final String signature = p.strVal();
         final String superName = p.sym();
         final String[] interfaces = p.syms();
@@ -78,6 +208,7 @@ public final class ClassParser implements ClassInput {
             p.begin();
             final String sym = p.sym();
             switch (sym) {
+            case "define":      p.define();         break;
             case "source":      parseSource(v);     break;
             case "inner-class": parseInnerClass(v); break;
             case "outer-class": parseOuterClass(v); break;
@@ -269,44 +400,45 @@ public final class ClassParser implements ClassInput {
 
     private void parseCode(final MethodVisitor v) {
         v.visitCode();
-        final HashMap<String, Label> labels = new HashMap<>();
+        labels.clear();
         while (p.more()) {
             p.begin();
             final String sym = p.sym();
             switch (sym) {
-            case "label": v.visitLabel(label(labels)); break;
+            case "label": v.visitLabel(label()); break;
             case "maxs": parseCodeMaxs(v); break;
-            case "line": parseCodeLine(v, labels); break;
-            case "try-catch": parseCodeTryCatchBlock(v, labels); break;
-            case "local": parseCodeLocalVariable(v, labels); break;
+            case "line": parseCodeLine(v); break;
+            case "try-catch": parseCodeTryCatchBlock(v); break;
+            case "local": parseCodeLocalVariable(v); break;
             case "insn-annotation": parseMethodTypeAnnotation(v); break;
             case "try-catch-annotation": parseMethodTypeAnnotation(v); break;
-            case "local-annotation": parseCodeLocalVariableAnnotation(v, labels); break;
-            case "frame": parseCodeFrame(v, labels); break;
-            default: parseCodeInsn(sym, v, labels); break;
+            case "local-annotation": parseCodeLocalVariableAnnotation(v); break;
+            case "frame": parseCodeFrame(v); break;
+            default: parseCodeInsn(sym, v); break;
             }
             p.end();
         }
     }
 
-    private void parseCodeLocalVariableAnnotation(final MethodVisitor v, final HashMap<String, Label> labels) {
+    private void parseCodeLocalVariableAnnotation(final MethodVisitor v) {
         final int typeRef = p.intVal();
         final TypePath typePath = TypePath.fromString(p.strVal());
-        final Label[] start = labels(labels);
-        final Label[] end = labels(labels);
+        final Label[] start = labels();
+        final Label[] end = labels();
 
-        final IntStream.Builder index = IntStream.builder();
+        final int indexStart = intTop;
         p.begin();
         while (p.more())
-            index.add(p.intVal());
+            pushInt(p.intVal());
         p.end();
+        final int[] index = popInts(indexStart);
 
         final String descriptor = p.strVal();
         final boolean visible = p.boolVal();
-        parseAnnotation(true, v.visitLocalVariableAnnotation(typeRef, typePath, start, end, index.build().toArray(), descriptor, visible));
+        parseAnnotation(true, v.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible));
     }
 
-    private Object frameItem(final HashMap<String, Label> labels) {
+    private Object frameItem() {
         if (p.isStrVal())
             return p.strVal();
         final String sym = p.sym();
@@ -318,23 +450,23 @@ public final class ClassParser implements ClassInput {
         case "J": return LONG;
         case "N": return NULL;
         case "U": return UNINITIALIZED_THIS;
-        default:  return sym2label(labels, sym);
+        default:  return sym2label(sym);
         }
     }
 
-    private Object[] frameItems(final HashMap<String, Label> labels) {
+    private Object[] frameItems() {
+        final int start = objTop;
         p.begin();
-        final Stream.Builder<Object> items = Stream.builder();
         while (p.more())
-            items.add(frameItem(labels));
+            pushObj(frameItem());
         p.end();
-        return items.build().toArray();
+        return popObjs(start);
     }
 
-    private void parseCodeFrame(final MethodVisitor v, final HashMap<String, Label> labels) {
+    private void parseCodeFrame(final MethodVisitor v) {
         final int type = frameType();
-        final Object[] local = frameItems(labels);
-        final Object[] stack = frameItems(labels);
+        final Object[] local = frameItems();
+        final Object[] stack = frameItems();
         v.visitFrame(type, local.length, local, stack.length, stack);
     }
 
@@ -350,21 +482,20 @@ public final class ClassParser implements ClassInput {
         }
     }
 
-    private void parseCodeLocalVariable(final MethodVisitor v, final HashMap<String, Label> labels) {
+    private void parseCodeLocalVariable(final MethodVisitor v) {
         final String name = p.sym();
         final String descriptor = p.strVal();
         final String signature = p.strVal();
-        final Label start = label(labels);
-        final Label end = label(labels);
+        final Label start = label();
+        final Label end = label();
         final int index = p.intVal();
         v.visitLocalVariable(name, descriptor, signature, start, end, index);
     }
 
-    private void parseCodeInsn(final String opName, final MethodVisitor v, final HashMap<String, Label> labels) {
-        final Integer op = OPCODES.get(opName);
-        if (op == null)
-             p.err("Invalid opcode " + opName);
-        final int opcode = op;
+    private void parseCodeInsn(final String opName, final MethodVisitor v) {
+        final int opcode = opcode(opName);
+        if (opcode < 0)
+            p.err("Invalid opcode " + opName);
         switch (opcode) {
         case LDC:
         {
@@ -390,27 +521,28 @@ public final class ClassParser implements ClassInput {
         {
             final int min = p.intVal();
             final int max = p.intVal();
-            final Label dflt = label(labels);
-            final Label[] table = labels(labels);
+            final Label dflt = label();
+            final Label[] table = labels();
             v.visitTableSwitchInsn(min, max, dflt, table);
             break;
         }
         case LOOKUPSWITCH:
         {
-            final Label dflt = label(labels);
-            final IntStream.Builder tableKeys = IntStream.builder();
-            final Stream.Builder<Label> tableLabels = Stream.builder();
+            final Label dflt = label();
+            final int keyStart = intTop, labelStart = objTop;
             p.begin();
             while (p.more()) {
                 p.begin();
                 final int key = p.intVal();
-                final Label label = label(labels);
+                final Label label = label();
                 p.end();
-                tableKeys.add(key);
-                tableLabels.add(label);
+                pushInt(key);
+                pushObj(label);
             }
             p.end();
-            v.visitLookupSwitchInsn(dflt, tableKeys.build().toArray(), tableLabels.build().toArray(Label[]::new));
+            final int[] tableKeys = popInts(keyStart);
+            final Label[] tableLabels = popLabels(labelStart);
+            v.visitLookupSwitchInsn(dflt, tableKeys, tableLabels);
             break;
         }
         case INVOKEDYNAMIC:
@@ -426,18 +558,9 @@ public final class ClassParser implements ClassInput {
         }
         case NEWARRAY:
         {
-            int type = 0;
-            switch (p.sym()) {
-            case "Z": type = T_BOOLEAN; break;
-            case "C": type = T_CHAR; break;
-            case "F": type = T_FLOAT; break;
-            case "D": type = T_DOUBLE; break;
-            case "B": type = T_BYTE; break;
-            case "S": type = T_SHORT; break;
-            case "I": type = T_INT; break;
-            case "J": type = T_LONG; break;
-            default: p.err("Invalid array type"); break;
-            }
+            final int type = arrayType(p.sym());
+            if (type < 0)
+                p.err("Invalid array type");
             v.visitIntInsn(NEWARRAY, type);
             break;
         }
@@ -456,38 +579,57 @@ public final class ClassParser implements ClassInput {
             break;
         }
         default:
-            if (INSN.contains(opcode)) {
+            switch (INSN_KIND[opcode]) {
+            case INSN:
+            {
                 v.visitInsn(opcode);
-            } else if (VAR_INSN.contains(opcode)) {
+                break;
+            }
+            case VAR_INSN:
+            {
                 final int var = p.intVal();
                 v.visitVarInsn(opcode, var);
-            } else if (INT_INSN.contains(opcode)) {
+                break;
+            }
+            case INT_INSN:
+            {
                 final int val = p.intVal();
                 v.visitIntInsn(opcode, val);
-            } else if (JUMP_INSN.contains(opcode)) {
-                final Label label = label(labels);
+                break;
+            }
+            case JUMP_INSN:
+            {
+                final Label label = label();
                 v.visitJumpInsn(opcode, label);
-            } else if (FIELD_INSN.contains(opcode)) {
+                break;
+            }
+            case FIELD_INSN:
+            {
                 final String owner = p.sym();
                 final String name = p.sym();
                 final String descriptor = p.strVal();
                 v.visitFieldInsn(opcode, owner, name, descriptor);
-            } else if (METHOD_INSN.contains(opcode)) {
+                break;
+            }
+            case METHOD_INSN:
+            {
                 final String owner = p.sym();
                 final String name = p.sym();
                 final String descriptor = p.strVal();
                 final boolean isInterface = opcode == INVOKEINTERFACE || (opcode == INVOKESTATIC && p.isBoolVal() && p.boolVal());
                 v.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
-            } else {
+                break;
+            }
+            default:
                 p.err("Unexpected instruction " + opName);
             }
         }
     }
 
-    private void parseCodeTryCatchBlock(final MethodVisitor v, final HashMap<String, Label> labels) {
-        final Label start = label(labels);
-        final Label end = label(labels);
-        final Label handler = label(labels);
+    private void parseCodeTryCatchBlock(final MethodVisitor v) {
+        final Label start = label();
+        final Label end = label();
+        final Label handler = label();
         final String type = p.strVal();
         v.visitTryCatchBlock(start, end, handler, type);
     }
@@ -498,9 +640,9 @@ public final class ClassParser implements ClassInput {
         v.visitMaxs(maxStack, maxLocals);
     }
 
-    private void parseCodeLine(final MethodVisitor v, final HashMap<String, Label> labels) {
+    private void parseCodeLine(final MethodVisitor v) {
         final int line = p.intVal();
-        final Label label = label(labels);
+        final Label label = label();
         v.visitLineNumber(line, label);
     }
 
@@ -509,55 +651,58 @@ public final class ClassParser implements ClassInput {
         p.begin();
         while (p.more()) {
             final String s = p.sym();
-            switch (s) {
-            case "abstract": a |= ACC_ABSTRACT; break;
-            case "annotation": a |= ACC_ANNOTATION; break;
-            case "bridge": a |= ACC_BRIDGE; break;
-            case "deprecated": a |= ACC_DEPRECATED; break;
-            case "enum": a |= ACC_ENUM; break;
-            case "final": a |= ACC_FINAL; break;
-            case "interface": a |= ACC_INTERFACE; break;
-            case "mandated": a |= ACC_MANDATED; break;
-            case "module": a |= ACC_MODULE; break;
-            case "native": a |= ACC_NATIVE; break;
-            case "open": a |= ACC_OPEN; break;
-            case "private": a |= ACC_PRIVATE; break;
-            case "protected": a |= ACC_PROTECTED; break;
-            case "public": a |= ACC_PUBLIC; break;
-            case "static": a |= ACC_STATIC; break;
-            case "static_phase": a |= ACC_STATIC_PHASE; break;
-            case "strictfp": a |= ACC_STRICT; break;
-            case "super": a |= ACC_SUPER; break;
-            case "synchronized": a |= ACC_SYNCHRONIZED; break;
-            case "synthetic": a |= ACC_SYNTHETIC; break;
-            case "transient": a |= ACC_TRANSIENT; break;
-            case "transitive": a |= ACC_TRANSITIVE; break;
-            case "varargs": a |= ACC_VARARGS; break;
-            case "volatile": a |= ACC_VOLATILE; break;
-            default: p.err("Invalid access token " + s);
-            }
+            final int flag = accessFlag(s);
+            if (flag == 0)
+                p.err("Invalid access token " + s);
+            a |= flag;
         }
         p.end();
         return a;
     }
 
-    private Label label(final HashMap<String, Label> labels) {
-        return sym2label(labels, p.sym());
+    static int accessFlag(final String s) {
+        switch (s) {
+        case "abstract": return ACC_ABSTRACT;
+        case "annotation": return ACC_ANNOTATION;
+        case "bridge": return ACC_BRIDGE;
+        case "deprecated": return ACC_DEPRECATED;
+        case "enum": return ACC_ENUM;
+        case "final": return ACC_FINAL;
+        case "interface": return ACC_INTERFACE;
+        case "mandated": return ACC_MANDATED;
+        case "module": return ACC_MODULE;
+        case "native": return ACC_NATIVE;
+        case "open": return ACC_OPEN;
+        case "private": return ACC_PRIVATE;
+        case "protected": return ACC_PROTECTED;
+        case "public": return ACC_PUBLIC;
+        case "static": return ACC_STATIC;
+        case "static_phase": return ACC_STATIC_PHASE;
+        case "strictfp": return ACC_STRICT;
+        case "super": return ACC_SUPER;
+        case "synchronized": return ACC_SYNCHRONIZED;
+        case "synthetic": return ACC_SYNTHETIC;
+        case "transient": return ACC_TRANSIENT;
+        case "transitive": return ACC_TRANSITIVE;
+        case "varargs": return ACC_VARARGS;
+        case "volatile": return ACC_VOLATILE;
+        default: return 0;
+        }
     }
 
-    private Label sym2label(final HashMap<String, Label> labels, final String name) {
-        if (name.charAt(0) != 'L')
-            p.err("Expected label, but got" + name);
-        Label label = labels.get(name);
-        if (label == null) {
-            label = new Label();
-            labels.put(name, label);
-        }
+    private Label label() {
+        return sym2label(p.sym());
+    }
+
+    private Label sym2label(final String name) {
+        final Label label = labels.get(name);
+        if (label == null)
+            p.err("Expected label, but got " + name);
         return label;
     }
 
-    private int handleTag() {
-        switch (p.sym()) {
+    static int handleTag(final String s) {
+        switch (s) {
         case "getfield": return H_GETFIELD;
         case "getstatic": return H_GETSTATIC;
         case "putfield": return H_PUTFIELD;
@@ -567,12 +712,14 @@ public final class ClassParser implements ClassInput {
         case "invokestatic": return H_INVOKESTATIC;
         case "invokevirtual": return H_INVOKEVIRTUAL;
         case "newinvokespecial": return H_NEWINVOKESPECIAL;
-        default: p.err("Invalid tag"); return -1;
+        default: return -1;
         }
     }
 
     private Handle handle() {
-        final int tag = handleTag();
+        final int tag = handleTag(p.sym());
+        if (tag < 0)
+            p.err("Invalid tag");
         final String owner = p.sym();
         final String name = p.sym();
         final String descriptor = p.strVal();
@@ -599,10 +746,10 @@ public final class ClassParser implements ClassInput {
         case "C": val = p.charVal(); break;
         case "[I":
         {
-            final IntStream.Builder vals = IntStream.builder();
+            final int start = intTop;
             while (p.more())
-                vals.add(p.intVal());
-            val = vals.build().toArray();
+                pushInt(p.intVal());
+            val = popInts(start);
             break;
         }
         default: p.err("Invalid value type " + type);
@@ -614,20 +761,53 @@ public final class ClassParser implements ClassInput {
     public Object[] generics() {
         if (p.isNull())
             return null;
-        final Stream.Builder<Object> list = Stream.builder();
+        final int start = objTop;
         p.begin();
         while (p.more())
-            list.add(generic());
+            pushObj(generic());
         p.end();
-        return list.build().toArray();
+        return popObjs(start);
     }
 
-    public Label[] labels(final HashMap<String, Label> labels) {
+    public Label[] labels() {
+        final int start = objTop;
         p.begin();
-        final Stream.Builder<Label> table = Stream.builder();
         while (p.more())
-            table.add(label(labels));
+            pushObj(label());
         p.end();
-        return table.build().toArray(Label[]::new);
+        return popLabels(start);
+    }
+
+    private void pushInt(final int x) {
+        if (intTop == ints.length)
+            ints = Arrays.copyOf(ints, 2 * ints.length);
+        ints[intTop++] = x;
+    }
+
+    private int[] popInts(final int start) {
+        final int[] a = Arrays.copyOfRange(ints, start, intTop);
+        intTop = start;
+        return a;
+    }
+
+    private void pushObj(final Object x) {
+        if (objTop == objs.length)
+            objs = Arrays.copyOf(objs, 2 * objs.length);
+        objs[objTop++] = x;
+    }
+
+    private Object[] popObjs(final int start) {
+        final Object[] a = Arrays.copyOfRange(objs, start, objTop);
+        Arrays.fill(objs, start, objTop, null);
+        objTop = start;
+        return a;
+    }
+
+    private Label[] popLabels(final int start) {
+        final Label[] a = new Label[objTop - start];
+        System.arraycopy(objs, start, a, 0, a.length);
+        Arrays.fill(objs, start, objTop, null);
+        objTop = start;
+        return a;
     }
 }
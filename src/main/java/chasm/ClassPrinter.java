@@ -1,8 +1,11 @@
 package chasm;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassVisitor;
@@ -13,6 +16,14 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.ModuleVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.TypePath;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.util.Printer;
 import static org.objectweb.asm.Opcodes.*;
 
@@ -146,16 +157,10 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
     };
 
     private final class MethodPrinter extends MethodVisitor {
-        private final HashMap<Label,String> labels = new HashMap<>();
         private boolean hasCode = false;
 
         private void label(final Label label) {
-            String name = labels.get(label);
-            if (name == null) {
-                name = "L" + labels.size();
-                labels.put(label, name);
-            }
-            p.sym(name);
+            p.sym(labelName(labelNumber(label)));
         }
 
         private void labels(final Label[] lbls) {
@@ -171,6 +176,7 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
 
         @Override
         public void visitEnd() {
+            releaseLabels();
             if (hasCode) {
                 p.unindent();
                 p.endLine();
@@ -249,8 +255,9 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
 
         private void frameItems(final int nitems, final Object[] items) {
             p.begin();
-            for (int i = 0; i < nitems && items != null; ++i) {
-                final Object item = items[i];
+            for (int i = 0; i < nitems; ++i) {
+                // Chopped frames from a MethodNode only carry the number of locals
+                final Object item = items != null ? items[i] : TOP;
                 if (item == null) p.sym("null");
                 else if (item instanceof String) p.val((String)item);
                 else if (item instanceof Label) label((Label)item);
@@ -318,18 +325,18 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
         public void visitTypeInsn(final int opcode, final String type) {
             p.block(OPCODES[opcode]);
             if (opcode == NEW || opcode == ANEWARRAY)
-                p.sym(type);
+                sym(type);
             else
-                p.val(type);
+                val(type);
             p.endLine();
         }
 
         @Override
         public void visitFieldInsn(final int opcode, final String owner, final String name, final String descriptor) {
             p.block(OPCODES[opcode]);
-            p.sym(owner);
+            sym(owner);
             p.sym(name);
-            p.val(descriptor);
+            val(descriptor);
             p.endLine();
         }
 
@@ -341,9 +348,9 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
             final String descriptor,
             final boolean isInterface) {
             p.block(OPCODES[opcode]);
-            p.sym(owner);
+            sym(owner);
             p.sym(name);
-            p.val(descriptor);
+            val(descriptor);
             if (opcode == INVOKESTATIC && isInterface)
                 p.val(true);
             p.endLine();
@@ -357,7 +364,7 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
             final Object... bootstrapMethodArguments) {
             p.block("invokedynamic");
             p.sym(name);
-            p.val(descriptor);
+            val(descriptor);
             p.indent();
             handle(bootstrapMethodHandle);
             p.newLine();
@@ -540,17 +547,46 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
         }
     }
 
-    private final Writer      w;
-    private final SExpPrinter p;
+    private OutputStream out;
+    private final SExpPrinter  p;
+    private ClassIndex   index;
+    private boolean      useAliases;
+    private HashMap<String, String> aliases = new HashMap<>();
+    private String className;
+    private long classStart;
+    private int classLine;
+    private String[] labelNames = new String[64];
+    private LabelSlot[] labelSlots = new LabelSlot[64];
+    private int labelCount;
     private final AnnotationPrinter annotationPrinter = new AnnotationPrinter(true);
     private final AnnotationPrinter namelessAnnotationPrinter = new AnnotationPrinter(false);
     private final FieldPrinter      fieldPrinter = new FieldPrinter();
     private final ModulePrinter     modulePrinter = new ModulePrinter();
 
-    public ClassPrinter(final Writer writer) {
+    public ClassPrinter(final OutputStream o) {
+        this(o, null, 0);
+    }
+
+    // Supports the Pipeline.COMPACT and Pipeline.ALIASES flags
+    public ClassPrinter(final OutputStream o, final ClassIndex i, final int flags) {
         super(Pipeline.API, null);
-        w = writer;
-        p = new SExpPrinter(writer);
+        out = o;
+        p = new SExpPrinter(o, (flags & Pipeline.COMPACT) != 0);
+        index = i;
+        useAliases = (flags & Pipeline.ALIASES) != 0;
+    }
+
+    // Starts printing to another stream, keeping the buffers and tables
+    public void reset(final OutputStream o, final ClassIndex i, final int flags) {
+        out = o;
+        p.reset(o, (flags & Pipeline.COMPACT) != 0);
+        index = i;
+        useAliases = (flags & Pipeline.ALIASES) != 0;
+        clearAliases();
+        releaseLabels();
+        className = null;
+        if (labelNames.length > Contexts.MAX_RETAINED)
+            labelNames = new String[64];
     }
 
     @Override
@@ -561,6 +597,9 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
         final String signature,
         final String superName,
         final String[] interfaces) {
+        className = name;
+        classStart = p.position();
+        classLine = p.line();
         p.block("class");
         p.val(version);
         accessClass(access);
@@ -569,6 +608,7 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
         p.sym(superName);
         p.syms(interfaces);
         p.indent();
+        printAliases();
     }
 
     @Override
@@ -651,7 +691,7 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
         p.block("field");
         accessField(access);
         p.sym(name);
-        p.val(descriptor);
+        val(descriptor);
         p.val(signature);
         generic(value);
         p.indent();
@@ -668,7 +708,7 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
         p.block("method");
         accessMethod(access);
         p.sym(name);
-        p.val(descriptor);
+        val(descriptor);
         p.val(signature);
         p.syms(exceptions);
         p.indent();
@@ -679,7 +719,16 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
     public void visitEnd() {
         p.unindent();
         p.endLine();
-        p.flush();
+        if (index != null)
+            index.add(className, classStart, p.position() - classStart, classLine);
+        clearAliases();
+    }
+
+    private void clearAliases() {
+        if (aliases.size() > Contexts.MAX_RETAINED)
+            aliases = new HashMap<>();
+        else
+            aliases.clear();
     }
 
     private void accessClass(final int a) {
@@ -796,15 +845,166 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
     private void handle(final Handle h) {
         p.block("H");
         p.sym(handleTag(h.getTag()));
-        p.sym(h.getOwner());
+        sym(h.getOwner());
         p.sym(h.getName());
         p.indent();
-        p.val(h.getDesc());
+        val(h.getDesc());
         p.val(h.isInterface());
         p.unindent();
         p.end();
     }
 
+    // Buffers the class, such that the repeated owners and descriptors are known before printing
+    private final class AliasCollector extends ClassNode {
+        private final HashMap<String, Integer> counts = new HashMap<>();
+
+        AliasCollector() {
+            super(Pipeline.API);
+        }
+
+        private void count(final String s) {
+            if (s != null)
+                counts.merge(s, 1, Integer::sum);
+        }
+
+        private void count(final Handle h) {
+            count(h.getOwner());
+            count(h.getDesc());
+        }
+
+        // ClassNode turns missing exceptions into an empty list, which would be printed differently
+        @Override
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String descriptor,
+                                         final String signature,
+                                         final String[] exceptions) {
+            final MethodNode m = (MethodNode)super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (exceptions == null)
+                m.exceptions = null;
+            return m;
+        }
+
+        @Override
+        public void visitEnd() {
+            for (final FieldNode f : fields)
+                count(f.desc);
+            for (final MethodNode m : methods) {
+                count(m.desc);
+                for (final AbstractInsnNode insn : m.instructions.toArray()) {
+                    if (insn instanceof FieldInsnNode) {
+                        count(((FieldInsnNode)insn).owner);
+                        count(((FieldInsnNode)insn).desc);
+                    } else if (insn instanceof MethodInsnNode) {
+                        count(((MethodInsnNode)insn).owner);
+                        count(((MethodInsnNode)insn).desc);
+                    } else if (insn instanceof TypeInsnNode) {
+                        count(((TypeInsnNode)insn).desc);
+                    } else if (insn instanceof InvokeDynamicInsnNode) {
+                        final InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode)insn;
+                        count(indy.desc);
+                        count(indy.bsm);
+                        for (final Object arg : indy.bsmArgs) {
+                            if (arg instanceof Handle)
+                                count((Handle)arg);
+                        }
+                    }
+                }
+            }
+
+            // Shorter aliases for more frequent values, values only if the alias saves space
+            final ArrayList<Map.Entry<String, Integer>> sorted = new ArrayList<>(counts.entrySet());
+            sorted.sort((a, b) -> b.getValue() - a.getValue());
+            for (final Map.Entry<String, Integer> e : sorted) {
+                final String alias = "." + Integer.toString(aliases.size(), 36);
+                final int n = e.getValue(), len = e.getKey().length() + 2;
+                if (n * (len - alias.length()) > len + alias.length() + 10)
+                    aliases.put(e.getKey(), alias);
+            }
+
+            accept(ClassPrinter.this);
+        }
+    }
+
+    private void printAliases() {
+        if (aliases.isEmpty())
+            return;
+        final String[] defs = new String[aliases.size()];
+        for (final Map.Entry<String, String> e : aliases.entrySet())
+            defs[Integer.parseInt(e.getValue().substring(1), 36)] = e.getKey();
+        for (int i = 0; i < defs.length; ++i) {
+            p.block("define");
+            p.sym("." + Integer.toString(i, 36));
+            p.val(defs[i]);
+            p.endLine();
+        }
+    }
+
+    private void sym(final String s) {
+        final String alias = aliases.get(s);
+        p.sym(alias != null ? alias : s);
+    }
+
+    private void val(final String s) {
+        final String alias = aliases.get(s);
+        if (alias != null)
+            p.sym(alias);
+        else
+            p.val(s);
+    }
+
+    // Labels are numbered in order of appearance per method. The number is kept in Label.info,
+    // whose previous value, e.g. the LabelNode of a MethodNode, is restored after the method.
+    private int labelNumber(final Label label) {
+        final Object info = label.info;
+        if (info instanceof LabelSlot && ((LabelSlot)info).label == label)
+            return ((LabelSlot)info).index;
+        if (labelCount == labelSlots.length)
+            labelSlots = Arrays.copyOf(labelSlots, 2 * labelSlots.length);
+        LabelSlot slot = labelSlots[labelCount];
+        if (slot == null) {
+            slot = new LabelSlot(labelCount);
+            labelSlots[labelCount] = slot;
+        }
+        slot.label = label;
+        slot.info = info;
+        label.info = slot;
+        return labelCount++;
+    }
+
+    private void releaseLabels() {
+        for (int i = 0; i < labelCount; ++i) {
+            final LabelSlot slot = labelSlots[i];
+            slot.label.info = slot.info;
+            slot.label = null;
+            slot.info = null;
+        }
+        labelCount = 0;
+        if (labelSlots.length > Contexts.MAX_RETAINED)
+            labelSlots = new LabelSlot[64];
+    }
+
+    private static final class LabelSlot {
+        private final int index;
+        private Label label;
+        private Object info;
+
+        LabelSlot(final int i) {
+            index = i;
+        }
+    }
+
+    private String labelName(final int n) {
+        if (n >= labelNames.length)
+            labelNames = Arrays.copyOf(labelNames, Math.max(n + 1, 2 * labelNames.length));
+        String name = labelNames[n];
+        if (name == null) {
+            name = "L" + n;
+            labelNames[n] = name;
+        }
+        return name;
+    }
+
     private void generic(final Object v) {
         if (v == null) {
             p.sym("null");
@@ -876,11 +1076,15 @@ public final class ClassPrinter extends ClassVisitor implements ClassOutput {
 
     @Override
     public void close() throws IOException {
-        w.close();
+        try {
+            p.flush();
+        } finally {
+            out.close();
+        }
     }
 
     @Override
     public ClassVisitor write() {
-        return this;
+        return useAliases ? new AliasCollector() : this;
     }
 }
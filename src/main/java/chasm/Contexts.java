@@ -0,0 +1,90 @@
+package chasm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import org.objectweb.asm.ClassVisitor;
+
+// Keeps one idle parser and printer per thread, such that the requests running on the
+// server workers reuse their buffers and tables instead of allocating new ones.
+// ClassWriter cannot be reset and is still created per class.
+final class Contexts {
+    private static final ThreadLocal<Contexts> LOCAL = ThreadLocal.withInitial(Contexts::new);
+    // Tables grown beyond this many entries are dropped on reset, such that a single
+    // large class does not inflate the pooled parsers and printers for good
+    static final int MAX_RETAINED = 1 << 12;
+
+    private ClassParser parser;
+    private ClassPrinter printer;
+
+    private Contexts() {
+    }
+
+    static ClassParser parser(final Reader reader, final int line) {
+        final Contexts c = LOCAL.get();
+        final ClassParser p = c.parser;
+        if (p == null)
+            return new ClassParser(reader, line);
+        c.parser = null;
+        p.reset(reader, line);
+        return p;
+    }
+
+    static void release(final ClassParser p) {
+        LOCAL.get().parser = p;
+    }
+
+    static ClassPrinter printer(final OutputStream out, final ClassIndex index, final int flags) {
+        final Contexts c = LOCAL.get();
+        final ClassPrinter p = c.printer;
+        if (p == null)
+            return new ClassPrinter(out, index, flags);
+        c.printer = null;
+        p.reset(out, index, flags);
+        return p;
+    }
+
+    static void release(final ClassPrinter p) {
+        LOCAL.get().printer = p;
+    }
+
+    // Returns the parser to the pool when the input is closed
+    static ClassInput input(final Reader reader, final int line) {
+        final ClassParser p = parser(reader, line);
+        return new ClassInput() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    p.close();
+                } finally {
+                    release(p);
+                }
+            }
+
+            @Override
+            public boolean read(final ClassVisitor v) {
+                return p.read(v);
+            }
+        };
+    }
+
+    // Returns the printer to the pool when the output is closed
+    static ClassOutput output(final OutputStream out, final ClassIndex index, final int flags) {
+        final ClassPrinter p = printer(out, index, flags);
+        return new ClassOutput() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    p.close();
+                } finally {
+                    release(p);
+                }
+            }
+
+            @Override
+            public ClassVisitor write() {
+                return p.write();
+            }
+        };
+    }
+}
@@ -4,16 +4,36 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 
 public final class DebugVisitor extends ClassVisitor {
-    private String lastMethod;
+    private final String phase;
+    private String className, lastMethod;
 
     public DebugVisitor(final ClassVisitor v) {
+        this(v, null);
+    }
+
+    // The ClassWriter computes frames and maxs in visitMaxs, which is recorded per method as the given
+    // phase with a "-method" suffix, such that it is not counted twice with the phase of the whole class
+    public DebugVisitor(final ClassVisitor v, final String p) {
         super(Pipeline.API, v);
+        phase = p == null ? null : p + "-method";
     }
 
     public String getLastMethod() {
         return lastMethod;
     }
 
+    @Override
+    public void visit(
+        final int version,
+        final int access,
+        final String name,
+        final String signature,
+        final String superName,
+        final String[] interfaces) {
+        className = name;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
     @Override
     public MethodVisitor visitMethod(
         final int access,
@@ -22,7 +42,18 @@ public final class DebugVisitor extends ClassVisitor {
         final String signature,
         final String[] exceptions) {
         lastMethod = name;
-        return super.visitMethod(access, name, descriptor, signature, exceptions);
+        final MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (phase == null)
+            return mv;
+        return new MethodVisitor(Pipeline.API, mv) {
+            @Override
+            public void visitMaxs(final int maxStack, final int maxLocals) {
+                try (Events.Span span = Events.phase(phase, className)) {
+                    span.setMethodName(name + descriptor);
+                    super.visitMaxs(maxStack, maxLocals);
+                }
+            }
+        };
     }
 
     @Override
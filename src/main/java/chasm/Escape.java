@@ -1,41 +1,50 @@
 package chasm;
 
+import java.nio.charset.StandardCharsets;
+
 public final class Escape {
     private Escape() {
     }
 
-    private static StringBuilder escape(final StringBuilder r, final char c) {
+    // Writes the escaped character, which takes at most six bytes, and returns the new position
+    public static int escape(final char c, final byte[] out, final int pos) {
+        int i = pos;
         switch (c) {
-        case '"':  return r.append("\\\"");
-        case '\\': return r.append("\\\\");
-        case '\b': return r.append("\\b");
-        case '\f': return r.append("\\f");
-        case '\n': return r.append("\\n");
-        case '\r': return r.append("\\r");
-        case '\t': return r.append("\\t");
-        case '\0': return r.append("\\0");
+        case '"':  out[i++] = '\\'; out[i++] = '"';  return i;
+        case '\\': out[i++] = '\\'; out[i++] = '\\'; return i;
+        case '\b': out[i++] = '\\'; out[i++] = 'b';  return i;
+        case '\f': out[i++] = '\\'; out[i++] = 'f';  return i;
+        case '\n': out[i++] = '\\'; out[i++] = 'n';  return i;
+        case '\r': out[i++] = '\\'; out[i++] = 'r';  return i;
+        case '\t': out[i++] = '\\'; out[i++] = 't';  return i;
+        case '\0': out[i++] = '\\'; out[i++] = '0';  return i;
         default:
-            if (c >= 20 && c < 127)
-                return r.append(c);
-            r.append("\\u");
-            for (int i = 0; i < 4; ++i) {
-                final int m = (c >> ((3 - i) << 2)) & 0xF;
-                r.append((char)(m >= 10 ? m - 10 + 'A' : m + '0'));
+            if (c >= 20 && c < 127) {
+                out[i++] = (byte)c;
+                return i;
+            }
+            out[i++] = '\\';
+            out[i++] = 'u';
+            for (int k = 0; k < 4; ++k) {
+                final int m = (c >> ((3 - k) << 2)) & 0xF;
+                out[i++] = (byte)(m >= 10 ? m - 10 + 'A' : m + '0');
             }
-            return r;
+            return i;
         }
     }
 
     public static String escapeChar(final char c) {
-        return escape(new StringBuilder(), c).toString();
+        final byte[] b = new byte[6];
+        return new String(b, 0, escape(c, b, 0), StandardCharsets.US_ASCII);
     }
 
     public static String escapeString(final String s) {
-        final char[] cs = s.toCharArray();
-        final StringBuilder r = new StringBuilder();
-        for (final char c : cs)
-            escape(r, c);
-        return r.toString();
+        final int len = s.length();
+        final byte[] b = new byte[6 * len];
+        int n = 0;
+        for (int i = 0; i < len; ++i)
+            n = escape(s.charAt(i), b, n);
+        return new String(b, 0, n, StandardCharsets.US_ASCII);
     }
 
     public static String unescapeString(final String s) {
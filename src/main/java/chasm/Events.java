@@ -0,0 +1,61 @@
+package chasm;
+
+// Flight recorder events of the pipeline phases and server requests. The event classes
+// are only loaded if the jdk.jfr module is available and the events are only created
+// while a recording is running.
+final class Events {
+    private static final boolean AVAILABLE = available();
+
+    interface Span extends AutoCloseable {
+        boolean isEnabled();
+        void setClassName(String name);
+        void setMethodName(String name);
+        void setBytes(long bytes);
+        @Override
+        void close();
+    }
+
+    private static final Span NONE = new Span() {
+            @Override
+            public boolean isEnabled() { return false; }
+
+            @Override
+            public void setClassName(final String name) {}
+
+            @Override
+            public void setMethodName(final String name) {}
+
+            @Override
+            public void setBytes(final long bytes) {}
+
+            @Override
+            public void close() {}
+        };
+
+    private Events() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // Phases are read, parse, frames, maxs, verify and write
+    static Span phase(final String phase) {
+        return AVAILABLE ? PhaseEvent.start(phase, NONE) : NONE;
+    }
+
+    static Span phase(final String phase, final String className) {
+        final Span span = phase(phase);
+        span.setClassName(className);
+        return span;
+    }
+
+    static Span request(final long id, final String command) {
+        return AVAILABLE ? RequestEvent.start(id, command, NONE) : NONE;
+    }
+}
@@ -0,0 +1,86 @@
+package chasm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Writes the output of one server request as "#id out length" frames followed by "#id exit status"
+// or "#id busy". Output after the end of the request is dropped.
+public final class FrameOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final String id;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int len = 0;
+    private boolean ended = false;
+
+    public FrameOutputStream(final OutputStream o, final String i) {
+        out = o;
+        id = i;
+    }
+
+    @Override
+    public synchronized void write(final int data) throws IOException {
+        if (len == buf.length)
+            frame();
+        buf[len++] = (byte)data;
+    }
+
+    @Override
+    public synchronized void write(final byte[] data, final int off, final int n) throws IOException {
+        int i = off;
+        final int end = off + n;
+        while (i < end) {
+            if (len == buf.length)
+                frame();
+            final int k = Math.min(end - i, buf.length - len);
+            System.arraycopy(data, i, buf, len, k);
+            len += k;
+            i += k;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        frame();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    public synchronized void exit(final int status) throws IOException {
+        frame();
+        end(" exit " + status);
+    }
+
+    public synchronized void busy() throws IOException {
+        len = 0;
+        end(" busy");
+    }
+
+    private void end(final String status) throws IOException {
+        if (ended)
+            return;
+        ended = true;
+        synchronized (out) {
+            out.write(("#" + id + status + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private void frame() throws IOException {
+        if (len == 0 || ended) {
+            len = 0;
+            return;
+        }
+        synchronized (out) {
+            out.write(("#" + id + " out " + len + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(buf, 0, len);
+        }
+        len = 0;
+    }
+}
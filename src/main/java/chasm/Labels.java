@@ -0,0 +1,65 @@
+package chasm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import org.objectweb.asm.Label;
+
+// Resolves symbolic label names, L<n> by array index and everything else by name
+final class Labels {
+    private static final int MAX_LABEL_DIGITS = 6;
+
+    private Label[] table = new Label[64];
+    private int count;
+    private HashMap<String, Label> named = new HashMap<>();
+
+    // Returns null if the name is not a label
+    Label get(final String name) {
+        if (name.isEmpty() || name.charAt(0) != 'L')
+            return null;
+        final int n = index(name);
+        if (n < 0) {
+            Label label = named.get(name);
+            if (label == null) {
+                label = new Label();
+                named.put(name, label);
+            }
+            return label;
+        }
+        if (n >= table.length)
+            table = Arrays.copyOf(table, Math.max(n + 1, 2 * table.length));
+        if (n >= count)
+            count = n + 1;
+        Label label = table[n];
+        if (label == null) {
+            label = new Label();
+            table[n] = label;
+        }
+        return label;
+    }
+
+    void clear() {
+        if (table.length > Contexts.MAX_RETAINED)
+            table = new Label[64];
+        else
+            Arrays.fill(table, 0, count, null);
+        count = 0;
+        if (named.size() > Contexts.MAX_RETAINED)
+            named = new HashMap<>();
+        else
+            named.clear();
+    }
+
+    private static int index(final String name) {
+        final int len = name.length();
+        if (len < 2 || len > MAX_LABEL_DIGITS + 1 || (len > 2 && name.charAt(1) == '0'))
+            return -1;
+        int n = 0;
+        for (int i = 1; i < len; ++i) {
+            final char c = name.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            n = 10 * n + c - '0';
+        }
+        return n;
+    }
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
 
 public final class Main {
     private Main() {
@@ -15,6 +17,9 @@ public final class Main {
 
     private static void run(final Path cwd, final String[] args, final PrintStream out) {
         int flags = 0, i = 0;
+        String className = null;
+        Pipeline.Duplicates duplicates = null;
+        boolean watch = false;
         while (i < args.length) {
             if (args[i].equals("-f"))
                 flags |= Pipeline.FRAMES;
@@ -24,6 +29,18 @@ public final class Main {
                 flags |= Pipeline.VERIFY_ASM;
             else if (args[i].equals("-vn"))
                 flags |= Pipeline.VERIFY_NATIVE;
+            else if (args[i].equals("-i"))
+                flags |= Pipeline.INDEX;
+            else if (args[i].equals("-c"))
+                flags |= Pipeline.COMPACT;
+            else if (args[i].equals("-a"))
+                flags |= Pipeline.ALIASES;
+            else if (args[i].equals("--class") && i + 1 < args.length)
+                className = args[++i];
+            else if (args[i].equals("--merge") && i + 1 < args.length)
+                duplicates = Pipeline.Duplicates.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            else if (args[i].equals("--watch"))
+                watch = true;
             else if (args[i].startsWith("-"))
                 throw new IllegalArgumentException(args[i]);
             else
@@ -31,11 +48,24 @@ public final class Main {
             ++i;
             }
 
-        if (i + 1 != args.length && i + 2 != args.length)
-            throw new IllegalArgumentException("Usage: chasm [-f|-m|-va|-vn] input [output]");
+        if (duplicates != null ? i + 2 > args.length : watch ? i + 2 != args.length : i + 1 != args.length && i + 2 != args.length)
+            throw new IllegalArgumentException("Usage: chasm [-f|-m|-va|-vn|-i|-c|-a] [--class name] input [output]\n"
+                                               + "       chasm [-f|-m|-va|-vn] --merge first|last|error input... output\n"
+                                               + "       chasm [-f|-m|-va|-vn] --watch input output.jar|outputdir");
 
         try {
-            new Pipeline(flags, out).process(cwd.resolve(Paths.get(args[i])),
+            if (duplicates != null) {
+                final ArrayList<Path> inputs = new ArrayList<>();
+                for (int j = i; j < args.length - 1; ++j)
+                    inputs.add(cwd.resolve(Paths.get(args[j])));
+                new Pipeline(flags, out).merge(inputs, cwd.resolve(Paths.get(args[args.length - 1])), duplicates);
+                return;
+            }
+            if (watch) {
+                new Watcher(new Pipeline(flags, out), cwd.resolve(Paths.get(args[i])), cwd.resolve(Paths.get(args[i + 1])), out).run();
+                return;
+            }
+            new Pipeline(flags, out).selectClass(className).process(cwd.resolve(Paths.get(args[i])),
                                              args.length == i + 2 ? cwd.resolve(Paths.get(args[i + 1])) : null);
         } catch (IOException e) {
             throw new RuntimeException(e);
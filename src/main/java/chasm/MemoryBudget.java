@@ -0,0 +1,67 @@
+package chasm;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bytes buffered by the pipelines of one server request, e.g. class files read ahead
+// by a merge. The budget of the request is bound to the worker thread running it.
+public final class MemoryBudget {
+    private static final ThreadLocal<MemoryBudget> CURRENT = new ThreadLocal<>();
+    static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE);
+
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+
+    public MemoryBudget(final long l) {
+        limit = l;
+    }
+
+    static MemoryBudget current() {
+        final MemoryBudget b = CURRENT.get();
+        return b != null ? b : UNLIMITED;
+    }
+
+    static void bind(final MemoryBudget b) {
+        if (b == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(b);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    // Returns false if the bytes do not fit, such that the caller can fall back to streaming
+    public boolean tryReserve(final long bytes) {
+        if (this == UNLIMITED)
+            return true;
+        long u;
+        do {
+            u = used.get();
+            if (u + bytes > limit)
+                return false;
+        } while (!used.compareAndSet(u, u + bytes));
+        return true;
+    }
+
+    public void reserve(final long bytes) throws IOException {
+        if (!tryReserve(bytes))
+            throw new IOException("Request needs more than its memory budget of " + limit + " bytes");
+    }
+
+    // Reserves the bytes even if they do not fit
+    void force(final long bytes) {
+        if (this != UNLIMITED)
+            used.addAndGet(bytes);
+    }
+
+    public void release(final long bytes) {
+        if (this != UNLIMITED)
+            used.addAndGet(-bytes);
+    }
+}
@@ -0,0 +1,154 @@
+package chasm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.ClassNode;
+
+public final class ParallelClassParser implements ClassInput {
+    private final byte[] data;
+    private final int[] blocks;
+    private final int window;
+    private final ArrayDeque<CompletableFuture<ClassNode>> pending = new ArrayDeque<>();
+    private int next = 0;
+
+    private ParallelClassParser(final byte[] d, final int[] b) {
+        data = d;
+        blocks = b;
+        window = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+    }
+
+    public static ClassInput create(final byte[] data) {
+        final int[] blocks = scan(data);
+        if (blocks == null || blocks.length <= 3)
+            return Contexts.input(reader(data, 0, data.length), 0);
+        return new ParallelClassParser(data, blocks);
+    }
+
+    private static InputStreamReader reader(final byte[] data, final int start, final int end) {
+        return new InputStreamReader(new ByteArrayInputStream(data, start, end - start), StandardCharsets.UTF_8);
+    }
+
+    // Returns (start, end, line) triples of the top-level forms or null if the input
+    // is not a plain sequence of forms. Token boundaries follow SExpParser.
+    static int[] scan(final byte[] data) {
+        int[] blocks = new int[48];
+        int n = 0, depth = 0, line = 0, start = 0, startLine = 0, i = 0;
+        final int len = data.length;
+        while (i < len) {
+            final byte c = data[i];
+            if (c == '\n' || c == '\r') {
+                ++line;
+                i = SExpParser.skipLineBreak(data, i);
+            } else if (c == ' ') {
+                ++i;
+            } else if (c == '(') {
+                if (depth++ == 0) {
+                    start = i;
+                    startLine = line;
+                }
+                ++i;
+            } else if (c == ')') {
+                if (depth == 0)
+                    return null;
+                ++i;
+                if (--depth == 0) {
+                    if (n + 3 > blocks.length)
+                        blocks = Arrays.copyOf(blocks, 2 * blocks.length);
+                    blocks[n++] = start;
+                    blocks[n++] = i;
+                    blocks[n++] = startLine;
+                }
+            } else if (depth == 0) {
+                return null;
+            } else if (c == '"' || c == '\'') {
+                for (++i; i < len && data[i] != c;) {
+                    // Escaped line breaks are counted as well
+                    if (data[i] == '\\' && ++i == len)
+                        break;
+                    if (data[i] == '\n' || data[i] == '\r') {
+                        ++line;
+                        i = SExpParser.skipLineBreak(data, i);
+                    } else {
+                        ++i;
+                    }
+                }
+                if (i >= len)
+                    return null;
+                ++i;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                ++i;
+                while (i < len && isNumber(data[i]))
+                    ++i;
+            } else {
+                ++i;
+                while (i < len && !isDelimiter(data[i]))
+                    ++i;
+            }
+        }
+        return depth == 0 ? Arrays.copyOf(blocks, n) : null;
+    }
+
+    private static boolean isNumber(final byte c) {
+        return (c >= '0' && c <= '9') || c == 'e' || c == 'E' || c == '.' || c == '-' || c == 'f' || c == 'F';
+    }
+
+    private static boolean isDelimiter(final byte c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '(' || c == ')' || c == '"';
+    }
+
+    private void fill() {
+        while (pending.size() < window && next < blocks.length) {
+            final int start = blocks[next], end = blocks[next + 1], line = blocks[next + 2];
+            next += 3;
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                        final ClassNode node = new ClassNode();
+                        final ClassParser parser = Contexts.parser(reader(data, start, end), line);
+                        try {
+                            parser.read(node);
+                        } finally {
+                            Contexts.release(parser);
+                        }
+                        return node;
+                    }));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (final CompletableFuture<ClassNode> f : pending)
+            f.cancel(false);
+        pending.clear();
+    }
+
+    @Override
+    public boolean read(final ClassVisitor v) throws IOException {
+        fill();
+        final ClassNode node;
+        try {
+            node = pending.remove().get();
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error)e.getCause();
+            throw new IOException(e.getCause());
+        }
+        fill();
+        node.accept(v);
+        return !pending.isEmpty();
+    }
+}
@@ -0,0 +1,59 @@
+package chasm;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("chasm.Phase")
+@Label("Pipeline Phase")
+@Category("Chasm")
+@StackTrace(false)
+final class PhaseEvent extends Event implements Events.Span {
+    @Label("Phase")
+    private String phase;
+
+    @Label("Class")
+    private String className;
+
+    @Label("Method")
+    private String methodName;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    private PhaseEvent(final String p) {
+        phase = p;
+    }
+
+    static Events.Span start(final String phase, final Events.Span none) {
+        final PhaseEvent e = new PhaseEvent(phase);
+        if (!e.isEnabled())
+            return none;
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void setClassName(final String name) {
+        className = name;
+    }
+
+    @Override
+    public void setMethodName(final String name) {
+        methodName = name;
+    }
+
+    @Override
+    public void setBytes(final long b) {
+        bytes = b;
+    }
+
+    @Override
+    public void close() {
+        commit();
+    }
+}
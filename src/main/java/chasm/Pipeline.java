@@ -1,23 +1,54 @@
 package chasm;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -30,29 +61,169 @@ public final class Pipeline {
     public static final int MAXS          = 2;
     public static final int VERIFY_ASM    = 4;
     public static final int VERIFY_NATIVE = 8;
+    public static final int INDEX         = 16;
+    public static final int COMPACT       = 32;
+    public static final int ALIASES       = 64;
     private static final int VERIFY       = VERIFY_ASM | VERIFY_NATIVE;
     private static final FileTime EPOCH = FileTime.fromMillis(315532800000L);
+    // Larger .chasm files are parsed sequentially as a stream instead of being read into memory
+    private static final long MAX_PARALLEL_INPUT = 64L << 20;
 
     public static final int API = Opcodes.ASM6;
 
+    private static volatile ClassCache cache;
+    private static volatile ServerStats stats;
+
     private final int flags;
     private final PrintStream log;
+    private final MemoryBudget budget = MemoryBudget.current();
+    private String className;
 
+    // Pipelines created by a server request account their buffers to the budget of the request
     public Pipeline(final int f, final PrintStream l) {
         flags = f;
         log = l;
     }
 
+    public Pipeline selectClass(final String name) {
+        className = name;
+        return this;
+    }
+
+    // Enables caching of jar listings and printed classes across pipelines
+    static void setCache(final ClassCache c) {
+        cache = c;
+    }
+
+    // Counts the classes and class file bytes processed by all pipelines
+    static void setStats(final ServerStats s) {
+        stats = s;
+    }
+
+    private static void countBytes(final int n) {
+        final ServerStats s = stats;
+        if (s != null)
+            s.addBytes(n);
+    }
+
     public void process(final Path input, final Path output) throws IOException {
-        run(selectInput(input), selectOutput(output));
+        try {
+            if (cache != null && output != null && (flags & (INDEX | VERIFY)) == 0 && input.toString().endsWith(".jar")
+                && isChasmOutput(output)) {
+                cachedJarToChasm(input, output);
+                return;
+            }
+            // Classes parsed in parallel are buffered as ClassNodes, which do not preserve the
+            // order of the class elements and null lists. This only matters for chasm output.
+            final boolean parallel = output == null || !isChasmOutput(output);
+            run(className != null ? selectClassInput(input) : selectInput(input, parallel), selectOutput(output));
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            deleteOutput(output);
+            throw e;
+        }
+    }
+
+    // Output files of cancelled runs are only partially written, class directories are kept
+    private static void deleteOutput(final Path output) throws IOException {
+        if (output != null && !Files.isDirectory(output))
+            Files.deleteIfExists(output);
+    }
+
+    // Outputs other than class files, jar files and class directories are chasm files
+    private static boolean isChasmOutput(final Path output) {
+        final String s = output.toString();
+        return !s.endsWith(".class") && !s.endsWith(".jar") && !Files.isDirectory(output);
+    }
+
+    // Jar listings and printed classes are cached by jar path, modification time and size.
+    // The printed classes are identical to the ones written by the ClassPrinter of the output.
+    private void cachedJarToChasm(final Path input, final Path output) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(input, BasicFileAttributes.class);
+        final String jarKey = input.toAbsolutePath() + "|" + attrs.lastModifiedTime().toMillis() + "|" + attrs.size();
+        FileSystem fs = null;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            String[] names = className != null ? new String[] { "/" + className + ".class" } : (String[])cache.get(jarKey);
+            if (names == null) {
+                fs = FileSystems.newFileSystem(URI.create("jar:file:" + input.toAbsolutePath()), new TreeMap<>());
+                names = getAllClassFiles(fs.getPath("/")).stream().map(Path::toString).toArray(String[]::new);
+                if (names.length == 0)
+                    throw new IOException("No class found in jar file");
+                long size = 0;
+                for (final String name : names)
+                    size += 2 * name.length();
+                cache.put(jarKey, names, size);
+            }
+            for (int i = 0; i < names.length; ++i) {
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
+                final String key = jarKey + "|" + (flags & (COMPACT | ALIASES)) + "|" + names[i];
+                byte[] text = (byte[])cache.get(key);
+                if (text == null) {
+                    if (fs == null)
+                        fs = FileSystems.newFileSystem(URI.create("jar:file:" + input.toAbsolutePath()), new TreeMap<>());
+                    try {
+                        final byte[] data = readFile(fs.getPath(names[i]));
+                        countBytes(data.length);
+                        text = printClass(data);
+                    } catch (NoSuchFileException e) {
+                        throw new IOException("Class " + className + " not found in " + input, e);
+                    }
+                    cache.put(key, text, text.length);
+                }
+                if (i > 0)
+                    out.write('\n');
+                out.write(text);
+                final ServerStats s = stats;
+                if (s != null)
+                    s.addClass();
+            }
+        } finally {
+            if (fs != null)
+                fs.close();
+        }
+    }
+
+    private byte[] printClass(final byte[] data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ClassPrinter printer = Contexts.printer(out, null, flags);
+        try {
+            bytecodeInput(data).read(printer.write());
+            printer.close();
+        } finally {
+            Contexts.release(printer);
+        }
+        return out.toByteArray();
+    }
+
+    public ClassOutput output(final Path output) throws IOException {
+        return selectOutput(output);
+    }
+
+    public void merge(final List<Path> inputs, final Path output, final Duplicates duplicates) throws IOException {
+        final ArrayList<Path> paths = new ArrayList<>(inputs);
+        // Keeping the first class of the reversed inputs keeps the last one
+        if (duplicates == Duplicates.LAST)
+            Collections.reverse(paths);
+        try {
+            run(new MergeInput(paths, duplicates == Duplicates.ERROR), selectOutput(output));
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            deleteOutput(output);
+            throw e;
+        }
     }
 
-    private static void run(final ClassInput input, final ClassOutput output) throws IOException {
+    public static void run(final ClassInput input, final ClassOutput output) throws IOException {
         try {
             boolean more;
             ClassVisitor v = output.write();
+            final ServerStats s = stats;
             do {
+                // Server requests are cancelled by interruption
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
                 more = input.read(v);
+                if (s != null)
+                    s.addClass();
                 v = output.write();
             } while (more && v != null);
         } finally {
@@ -61,9 +232,9 @@ public final class Pipeline {
         }
     }
 
-    private static LinkedList<Path> getAllClassFiles(final FileSystem fs) throws IOException {
+    private static LinkedList<Path> getAllClassFiles(final Path root) throws IOException {
         final TreeSet<Path> paths = new TreeSet<>();
-        Files.walkFileTree(fs.getPath("/"), new SimpleFileVisitor<Path>() {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(final Path p, final BasicFileAttributes attrs) {
                     if (p.toString().endsWith(".class"))
@@ -85,7 +256,7 @@ public final class Pipeline {
 
     private ClassInput jarInput(final Path input) throws IOException {
         final FileSystem fs = FileSystems.newFileSystem(URI.create("jar:file:" + input.toAbsolutePath()), new TreeMap<>());
-        final LinkedList<Path> paths = getAllClassFiles(fs);
+        final LinkedList<Path> paths = getAllClassFiles(fs.getPath("/"));
         return new ClassInput() {
             @Override
             public void close() throws IOException { fs.close(); }
@@ -100,58 +271,385 @@ public final class Pipeline {
         };
     }
 
-    private ClassOutput jarOutput(final Path output) throws IOException {
-        final TreeMap<String, String> env = new TreeMap<>();
-        env.put("create", "true");
-        final FileSystem fs = FileSystems.newFileSystem(URI.create("jar:file:" + output.toAbsolutePath()), env);
+    public enum Duplicates {
+        FIRST,
+        LAST,
+        ERROR,
+    }
 
-        class JarOutput extends ClassVisitor implements ClassOutput {
-            private ClassOutput out;
-            private Path path;
+    // Reads the inputs in parallel, but passes their classes on in order. Inputs are only
+    // read ahead as far as their estimated sizes fit into the memory budget, and inputs
+    // larger than the budget are read from the file one class at a time.
+    private final class MergeInput implements ClassInput {
+        private final List<Path> paths;
+        private final long[] sizes;
+        private final boolean[] streamed;
+        private final ArrayList<CompletableFuture<ArrayDeque<Object>>> pending = new ArrayList<>();
+        private final HashSet<String> seen = new HashSet<>();
+        private final boolean strict;
+        private ClassStream classes = EMPTY_STREAM;
+        private Object ahead;
+        private int next = 0, released = 0;
+
+        MergeInput(final List<Path> p, final boolean s) throws IOException {
+            paths = p;
+            strict = s;
+            sizes = new long[paths.size()];
+            streamed = new boolean[paths.size()];
+            for (int i = 0; i < sizes.length; ++i) {
+                sizes[i] = estimateSize(paths.get(i));
+                if (sizes[i] > budget.getLimit()) {
+                    streamed[i] = true;
+                    sizes[i] = 0;
+                }
+            }
+            readAhead();
+        }
 
-            JarOutput() {
-                super(API);
+        private void readAhead() {
+            while (pending.size() < paths.size()) {
+                final int i = pending.size();
+                // The input consumed next is read in any case, it fits once the consumed inputs are released
+                if (!budget.tryReserve(sizes[i])) {
+                    if (i > next)
+                        return;
+                    budget.force(sizes[i]);
+                }
+                final Path path = paths.get(i);
+                pending.add(streamed[i] ? null : CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return readClasses(path);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }));
             }
+        }
 
-            @Override
-            public void close() throws IOException { fs.close(); }
+        @Override
+        public void close() throws IOException {
+            for (final CompletableFuture<ArrayDeque<Object>> f : pending) {
+                if (f != null)
+                    f.cancel(false);
+            }
+            while (released < pending.size())
+                budget.release(sizes[released++]);
+            classes.close();
+        }
 
-            @Override
-            public ClassVisitor write() {
-                return this;
+        @Override
+        public boolean read(final ClassVisitor v) throws IOException {
+            for (;;) {
+                final Object c = ahead != null ? ahead : poll();
+                ahead = null;
+                if (c == null)
+                    return false;
+                final String name = c instanceof ClassNode ? ((ClassNode)c).name : new ClassReader((byte[])c).getClassName();
+                if (seen.add(name)) {
+                    writeClass(name, c, v);
+                    ahead = poll();
+                    return ahead != null;
+                }
+                if (strict)
+                    throw new IOException("Duplicate class " + name + " in " + paths.get(next - 1));
             }
+        }
 
+        // Returns the next class of the inputs or null
+        private Object poll() throws IOException {
+            for (;;) {
+                final Object c = classes.next();
+                if (c != null)
+                    return c;
+                classes.close();
+                classes = EMPTY_STREAM;
+                while (released < next)
+                    budget.release(sizes[released++]);
+                if (next == paths.size())
+                    return null;
+                readAhead();
+                final CompletableFuture<ArrayDeque<Object>> f = pending.get(next);
+                classes = f == null ? streamClasses(paths.get(next)) : bufferedStream(await(f));
+                pending.set(next++, null);
+            }
+        }
+
+        private ArrayDeque<Object> await(final CompletableFuture<ArrayDeque<Object>> f) throws IOException {
+            try {
+                return f.get();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                close();
+                if (e.getCause() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException)e.getCause()).getCause();
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error)e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    // Class files as bytes or chasm classes as ClassNodes, next returns null at the end
+    private interface ClassStream extends Closeable {
+        Object next() throws IOException;
+    }
+
+    private static final ClassStream EMPTY_STREAM = bufferedStream(new ArrayDeque<>());
+
+    private static ClassStream bufferedStream(final ArrayDeque<Object> classes) {
+        return new ClassStream() {
             @Override
-            public void visit(final int version,
-                              final int access,
-                              final String name,
-                              final String signature,
-                              final String superName,
-                              final String[] interfaces) {
-                try {
-                    path = fs.getPath(name + ".class");
-                    createParentDir(path);
-                    out = bytecodeOutput(path);
-                    cv = out.write();
-                    cv.visit(version, access, name, signature, superName, interfaces);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            public void close() {}
+
+            @Override
+            public Object next() { return classes.poll(); }
+        };
+    }
+
+    // Bytes buffered by readClasses. ClassNodes are assumed to take about twice the size of their text.
+    private static long estimateSize(final Path input) throws IOException {
+        final String s = input.toString();
+        if (Files.isDirectory(input)) {
+            long size = 0;
+            for (final Path p : getAllClassFiles(input))
+                size += Files.size(p);
+            return size;
+        }
+        if (s.endsWith(".jar")) {
+            long size = 0;
+            try (ZipFile zip = new ZipFile(input.toFile())) {
+                for (final Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                    final ZipEntry entry = e.nextElement();
+                    if (entry.getName().endsWith(".class"))
+                        size += Math.max(entry.getSize(), entry.getCompressedSize());
                 }
             }
+            return size;
+        }
+        return s.endsWith(".class") ? Files.size(input) : 2 * Files.size(input);
+    }
 
-            @Override
-            public void visitEnd() {
-                try {
-                    cv = null;
-                    out.close();
-                    Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(EPOCH, EPOCH, EPOCH);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+    // Class files are kept as bytes, such that they can be copied to bytecode outputs
+    // without going through ClassReader and ClassWriter
+    private ArrayDeque<Object> readClasses(final Path input) throws IOException {
+        final ArrayDeque<Object> classes = new ArrayDeque<>();
+        try (ClassStream in = streamClasses(input)) {
+            for (Object c = in.next(); c != null; c = in.next())
+                classes.add(c);
+        }
+        return classes;
+    }
+
+    private ClassStream streamClasses(final Path input) throws IOException {
+        final String s = input.toString();
+        if (Files.isDirectory(input) || s.endsWith(".class") || s.endsWith(".jar")) {
+            final FileSystem fs = !Files.isDirectory(input) && s.endsWith(".jar")
+                ? FileSystems.newFileSystem(URI.create("jar:file:" + input.toAbsolutePath()), new TreeMap<>()) : null;
+            final LinkedList<Path> files = fs != null ? getAllClassFiles(fs.getPath("/"))
+                : Files.isDirectory(input) ? getAllClassFiles(input) : new LinkedList<>(Collections.singletonList(input));
+            return new ClassStream() {
+                @Override
+                public void close() throws IOException {
+                    if (fs != null)
+                        fs.close();
                 }
+
+                @Override
+                public Object next() throws IOException {
+                    return files.isEmpty() ? null : readFile(files.pop());
+                }
+            };
+        }
+        final ClassInput in = selectInput(input, false);
+        return new ClassStream() {
+            private boolean more = true;
+
+            @Override
+            public void close() throws IOException { in.close(); }
+
+            @Override
+            public Object next() throws IOException {
+                if (!more)
+                    return null;
+                final ClassNode node = new ClassNode();
+                more = in.read(node);
+                return node;
+            }
+        };
+    }
+
+    private void writeClass(final String name, final Object c, final ClassVisitor v) throws IOException {
+        if (c instanceof ClassNode) {
+            ((ClassNode)c).accept(v);
+        } else if (v instanceof MultiOutput && (flags & (FRAMES | MAXS)) == 0) {
+            final byte[] data = (byte[])c;
+            if ((flags & VERIFY) != 0)
+                verifyClass(data);
+            countBytes(data.length);
+            try (Events.Span span = Events.phase("write", name)) {
+                span.setBytes(data.length);
+                ((MultiOutput)v).sink.write(name, data);
+            }
+        } else {
+            bytecodeInput((byte[])c).read(v);
+        }
+    }
+
+    private interface ClassSink {
+        void write(String name, byte[] data) throws IOException;
+    }
+
+    // Writes every class visited to the sink as bytecode
+    private final class MultiOutput extends ClassVisitor implements ClassOutput {
+        private final ClassSink sink;
+        private final Closeable closeable;
+        private ClassOutput out;
+
+        MultiOutput(final ClassSink s, final Closeable c) {
+            super(API);
+            sink = s;
+            closeable = c;
+        }
+
+        @Override
+        public void close() throws IOException { closeable.close(); }
+
+        @Override
+        public ClassVisitor write() {
+            return this;
+        }
+
+        @Override
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            try {
+                out = bytecodeOutput(sink);
+                cv = out.write();
+                cv.visit(version, access, name, signature, superName, interfaces);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            try {
+                cv = null;
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         }
+    }
+
+    private ClassOutput jarOutput(final Path output) throws IOException {
+        final TreeMap<String, String> env = new TreeMap<>();
+        env.put("create", "true");
+        final FileSystem fs = FileSystems.newFileSystem(URI.create("jar:file:" + output.toAbsolutePath()), env);
+        return new MultiOutput(jarSink(fs), fs);
+    }
+
+    private static ClassSink directorySink(final Path output) {
+        return (name, data) -> {
+            final Path path = output.resolve(name + ".class");
+            Files.createDirectories(path.getParent());
+            Files.write(path, data);
+        };
+    }
+
+    private static ClassSink jarSink(final FileSystem fs) {
+        return (name, data) -> {
+            final Path path = fs.getPath(name + ".class");
+            createParentDir(path);
+            Files.write(path, data);
+            Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(EPOCH, EPOCH, EPOCH);
+        };
+    }
+
+    private ClassOutput directoryOutput(final Path output) {
+        return new MultiOutput(directorySink(output), () -> { });
+    }
+
+    // Writes and deletes single classes of a jar file or class directory
+    void updateClasses(final Path output, final Map<String, byte[]> classes, final Collection<String> removed)
+        throws IOException {
+        if (Files.isDirectory(output)) {
+            for (final String name : removed)
+                Files.deleteIfExists(output.resolve(name + ".class"));
+            final ClassSink sink = directorySink(output);
+            for (final Map.Entry<String, byte[]> e : classes.entrySet())
+                sink.write(e.getKey(), e.getValue());
+            return;
+        }
+        final TreeMap<String, String> env = new TreeMap<>();
+        env.put("create", "true");
+        try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:file:" + output.toAbsolutePath()), env)) {
+            for (final String name : removed)
+                Files.deleteIfExists(fs.getPath(name + ".class"));
+            final ClassSink sink = jarSink(fs);
+            for (final Map.Entry<String, byte[]> e : classes.entrySet())
+                sink.write(e.getKey(), e.getValue());
+        }
+    }
+
+    public ClassOutput jarOutput(final OutputStream output) throws IOException {
+        final JarOutputStream jar = new JarOutputStream(output);
+        return new MultiOutput((name, data) -> {
+                final JarEntry entry = new JarEntry(name + ".class");
+                entry.setTime(EPOCH.toMillis());
+                jar.putNextEntry(entry);
+                jar.write(data);
+                jar.closeEntry();
+            }, jar);
+    }
+
+    // Map keys are internal class names
+    public ClassOutput mapOutput(final Map<String, byte[]> classes) {
+        return new MultiOutput(classes::put, () -> { });
+    }
+
+    public ClassOutput loaderOutput(final ByteClassLoader loader) {
+        return new MultiOutput(loader::addClass, () -> { });
+    }
+
+    public ClassOutput bytecodeOutput(final OutputStream output) {
+        return bytecodeOutput((name, data) -> {
+                try (OutputStream out = output) {
+                    out.write(data);
+                }
+            });
+    }
+
+    public ClassOutput chasmOutput(final OutputStream output) {
+        return Contexts.output(output, null, flags);
+    }
+
+    public ClassOutput chasmOutput(final Writer output) {
+        return chasmOutput(new WriterOutputStream(output));
+    }
 
-        return new JarOutput();
+    private ClassOutput indexedOutput(final Path output) throws IOException {
+        final ClassIndex index = new ClassIndex();
+        final ClassOutput printer = Contexts.output(Files.newOutputStream(output), index, flags);
+        return new ClassOutput() {
+            @Override
+            public void close() throws IOException {
+                printer.close();
+                index.write(output);
+            }
+
+            @Override
+            public ClassVisitor write() throws IOException { return printer.write(); }
+        };
     }
 
     private static final ClassOutput DUMMY_OUTPUT = new ClassOutput() {
@@ -162,7 +660,11 @@ public final class Pipeline {
             public ClassVisitor write() { return new ClassNode(); }
         };
 
-    private ClassOutput bytecodeOutput(final Path output) throws IOException {
+    private ClassOutput bytecodeOutput(final Path output) {
+        return bytecodeOutput((name, data) -> Files.write(output, data));
+    }
+
+    private ClassOutput bytecodeOutput(final ClassSink sink) {
         int opt = 0;
         if ((flags & FRAMES) != 0)
             opt = ClassWriter.COMPUTE_FRAMES;
@@ -178,18 +680,27 @@ public final class Pipeline {
             @Override
             public void close() throws IOException {
                 if (classNode != null) {
-                    DebugVisitor debugVisitor = new DebugVisitor(classWriter);
+                    final String phase = (flags & FRAMES) != 0 ? "frames" : "maxs";
+                    DebugVisitor debugVisitor = new DebugVisitor(classWriter, phase);
+                    final Events.Span span = Events.phase(phase, classNode.name);
                     try {
                         classNode.accept(debugVisitor);
                     } catch (Exception e) {
                         throw new IOException("ClassWriter crashed while processing method "
                                               + debugVisitor.getLastMethod() + ".\nInvalid bytecode?", e);
+                    } finally {
+                        span.close();
                     }
                 }
                 final byte[] data = classWriter.toByteArray();
                 if ((flags & VERIFY) != 0)
                     verifyClass(data);
-                Files.write(output, data);
+                countBytes(data.length);
+                final String name = new ClassReader(data).getClassName();
+                try (Events.Span span = Events.phase("write", name)) {
+                    span.setBytes(data.length);
+                    sink.write(name, data);
+                }
             }
 
             @Override
@@ -202,10 +713,14 @@ public final class Pipeline {
     }
 
     private void verifyClass(final byte[] data) {
-        if ((flags & VERIFY_NATIVE) != 0)
-            verifyClassNative(data);
-        if ((flags & VERIFY_ASM) != 0)
-            verifyClassAsm(data);
+        try (Events.Span span = Events.phase("verify")) {
+            if (span.isEnabled())
+                span.setClassName(new ClassReader(data).getClassName());
+            if ((flags & VERIFY_NATIVE) != 0)
+                verifyClassNative(data);
+            if ((flags & VERIFY_ASM) != 0)
+                verifyClassAsm(data);
+        }
     }
 
     private void verifyClassAsm(final byte[] data) {
@@ -216,28 +731,108 @@ public final class Pipeline {
         new ByteClassLoader().loadClass(data);
     }
 
-    private ClassInput selectInput(final Path input) throws IOException {
+    private ClassInput selectInput(final Path input, final boolean parallel) throws IOException {
         final String s = input.toString();
         if (s.endsWith(".class"))
             return bytecodeInput(input);
         if (s.endsWith(".jar"))
             return jarInput(input);
-        return new ClassParser(Files.newBufferedReader(input, StandardCharsets.UTF_8));
+        // Inputs which do not fit into the memory budget are parsed from the file as a stream
+        final long size = Files.size(input);
+        if (!parallel || size > MAX_PARALLEL_INPUT || !budget.tryReserve(size))
+            return Contexts.input(Files.newBufferedReader(input, StandardCharsets.UTF_8), 0);
+        try {
+            return releasing(ParallelClassParser.create(readFile(input)), size);
+        } catch (IOException | RuntimeException e) {
+            budget.release(size);
+            throw e;
+        }
     }
 
     private ClassOutput selectOutput(final Path output) throws IOException {
         if (output == null)
             return DUMMY_OUTPUT;
+        if (Files.isDirectory(output))
+            return directoryOutput(output);
         final String s = output.toString();
         if (s.endsWith(".class"))
             return bytecodeOutput(output);
         if (s.endsWith(".jar"))
             return jarOutput(output);
-        return new ClassPrinter(Files.newBufferedWriter(output, StandardCharsets.UTF_8));
+        if ((flags & INDEX) != 0)
+            return indexedOutput(output);
+        return chasmOutput(Files.newOutputStream(output));
+    }
+
+    private ClassInput selectClassInput(final Path input) throws IOException {
+        final String s = input.toString();
+        if (s.endsWith(".jar")) {
+            final FileSystem fs = FileSystems.newFileSystem(URI.create("jar:file:" + input.toAbsolutePath()), new TreeMap<>());
+            try {
+                final ClassInput in = bytecodeInput(fs.getPath(className + ".class"));
+                return new ClassInput() {
+                    @Override
+                    public void close() throws IOException { fs.close(); }
+
+                    @Override
+                    public boolean read(final ClassVisitor v) throws IOException {
+                        return in.read(v);
+                    }
+                };
+            } catch (NoSuchFileException e) {
+                fs.close();
+                throw new IOException("Class " + className + " not found in " + input, e);
+            }
+        }
+        if (!s.endsWith(".class")) {
+            final ClassIndex index = ClassIndex.read(input);
+            if (index != null) {
+                final ClassIndex.Block block = index.get(className);
+                if (block == null)
+                    throw new IOException("Class " + className + " not found in " + input);
+                final ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(block.getLength()));
+                try (FileChannel ch = FileChannel.open(input)) {
+                    while (data.hasRemaining()) {
+                        if (ch.read(data, block.getOffset() + data.position()) < 0)
+                            throw new IOException("Class index " + ClassIndex.path(input) + " is out of date");
+                    }
+                }
+                return Contexts.input(new InputStreamReader(new ByteArrayInputStream(data.array()), StandardCharsets.UTF_8),
+                                      block.getLine());
+            }
+        }
+        final ClassInput in = selectInput(input, false);
+        return new ClassInput() {
+            @Override
+            public void close() throws IOException { in.close(); }
+
+            @Override
+            public boolean read(final ClassVisitor v) throws IOException {
+                boolean more;
+                do {
+                    final ClassNode node = new ClassNode();
+                    more = in.read(node);
+                    if (className.equals(node.name)) {
+                        node.accept(v);
+                        return false;
+                    }
+                } while (more);
+                throw new IOException("Class " + className + " not found in " + input);
+            }
+        };
     }
 
     private ClassInput bytecodeInput(final Path input) throws IOException {
-        final byte[] data = Files.readAllBytes(input);
+        return bytecodeInput(readFile(input));
+    }
+
+    public ClassInput bytecodeInput(final InputStream input) throws IOException {
+        try (InputStream in = input) {
+            return bytecodeInput(readAllBytes(in));
+        }
+    }
+
+    public ClassInput bytecodeInput(final byte[] data) {
         if ((flags & VERIFY) != 0)
             verifyClass(data);
         return new ClassInput() {
@@ -246,9 +841,103 @@ public final class Pipeline {
 
             @Override
             public boolean read(final ClassVisitor v) {
-                new ClassReader(data).accept(v, 0);
+                countBytes(data.length);
+                final ClassReader reader = new ClassReader(data);
+                try (Events.Span span = Events.phase("parse")) {
+                    if (span.isEnabled())
+                        span.setClassName(reader.getClassName());
+                    span.setBytes(data.length);
+                    reader.accept(v, 0);
+                }
                 return false;
             }
         };
     }
+
+    public ClassInput jarInput(final InputStream input) throws IOException {
+        final TreeMap<String, byte[]> classes = new TreeMap<>();
+        long size = 0;
+        try (ZipInputStream zip = new ZipInputStream(input)) {
+            ZipEntry entry = zip.getNextEntry();
+            while (entry != null) {
+                if (entry.getName().endsWith(".class")) {
+                    final byte[] data = readAllBytes(zip);
+                    budget.reserve(data.length);
+                    size += data.length;
+                    classes.put(entry.getName(), data);
+                }
+                entry = zip.getNextEntry();
+            }
+        } catch (IOException | RuntimeException e) {
+            budget.release(size);
+            throw e;
+        }
+        return releasing(mapInput(classes), size);
+    }
+
+    // Releases the buffered bytes of the input when it is closed
+    private ClassInput releasing(final ClassInput in, final long size) {
+        return new ClassInput() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    budget.release(size);
+                }
+            }
+
+            @Override
+            public boolean read(final ClassVisitor v) throws IOException {
+                return in.read(v);
+            }
+        };
+    }
+
+    // Reads the class files in the iteration order of the map
+    public ClassInput mapInput(final Map<String, byte[]> classes) {
+        final Iterator<byte[]> it = classes.values().iterator();
+        return new ClassInput() {
+            @Override
+            public void close() {}
+
+            @Override
+            public boolean read(final ClassVisitor v) throws IOException {
+                if (!it.hasNext())
+                    throw new IOException("No class found");
+                bytecodeInput(it.next()).read(v);
+                return it.hasNext();
+            }
+        };
+    }
+
+    public ClassInput chasmInput(final InputStream input) {
+        return chasmInput(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    public ClassInput chasmInput(final Reader input) {
+        return Contexts.input(input, 0);
+    }
+
+    private static byte[] readFile(final Path path) throws IOException {
+        try (Events.Span span = Events.phase("read")) {
+            final byte[] data = Files.readAllBytes(path);
+            span.setBytes(data.length);
+            return data;
+        }
+    }
+
+    static byte[] readAllBytes(final InputStream in) throws IOException {
+        try (Events.Span span = Events.phase("read")) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            int n = in.read(buf);
+            while (n >= 0) {
+                out.write(buf, 0, n);
+                n = in.read(buf);
+            }
+            span.setBytes(out.size());
+            return out.toByteArray();
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package chasm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("chasm.Request")
+@Label("Server Request")
+@Category("Chasm")
+@StackTrace(false)
+final class RequestEvent extends Event implements Events.Span {
+    @Label("Request Id")
+    private long id;
+
+    @Label("Command")
+    private String command;
+
+    private RequestEvent(final long i, final String c) {
+        id = i;
+        command = c;
+    }
+
+    static Events.Span start(final long id, final String command, final Events.Span none) {
+        final RequestEvent e = new RequestEvent(id, command);
+        if (!e.isEnabled())
+            return none;
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void setClassName(final String name) {}
+
+    @Override
+    public void setMethodName(final String name) {}
+
+    @Override
+    public void setBytes(final long bytes) {}
+
+    @Override
+    public void close() {
+        commit();
+    }
+}
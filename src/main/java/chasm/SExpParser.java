@@ -1,10 +1,10 @@
 package chasm;
 
 import java.io.Reader;
-import java.io.LineNumberReader;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.stream.Stream;
+import java.util.Arrays;
+import java.util.HashMap;
 
 public final class SExpParser {
     private enum Token {
@@ -31,10 +31,65 @@ public final class SExpParser {
     private String strTok;
     private long intTok;
     private double floatTok;
-    private final LineNumberReader reader;
+    private String[] symBuf = new String[16];
+    private HashMap<String, String> aliases = new HashMap<>();
+    // Buffered like LineNumberReader, which turns \r and \r\n into \n, but reusable
+    private final char[] chars = new char[8192];
+    private int charPos, charLen, line;
+    private boolean skipLF;
+    private Reader reader;
 
     public SExpParser(final Reader r) {
-        reader = new LineNumberReader(r);
+        this(r, 0);
+    }
+
+    public SExpParser(final Reader r, final int l) {
+        reset(r, l);
+    }
+
+    // Starts parsing another reader, keeping the buffers
+    public void reset(final Reader r, final int l) {
+        reader = r;
+        line = l;
+        charPos = charLen = 0;
+        skipLF = false;
+        lastChar = -1;
+        lastTok = null;
+        strTok = null;
+        if (symBuf.length > Contexts.MAX_RETAINED)
+            symBuf = new String[16];
+        clearAliases();
+    }
+
+    private int read() throws IOException {
+        for (;;) {
+            if (charPos == charLen) {
+                final int n = reader.read(chars, 0, chars.length);
+                if (n <= 0)
+                    return -1;
+                charPos = 0;
+                charLen = n;
+            }
+            final char c = chars[charPos++];
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n')
+                    continue;
+            }
+            if (c == '\r') {
+                skipLF = true;
+                ++line;
+                return '\n';
+            }
+            if (c == '\n')
+                ++line;
+            return c;
+        }
+    }
+
+    // Index after the line break at data[i], where \r\n counts as one line break like in read()
+    static int skipLineBreak(final byte[] data, final int i) {
+        return data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n' ? i + 2 : i + 1;
     }
 
     public void begin() {
@@ -54,9 +109,37 @@ public final class SExpParser {
 
     public String sym() {
         expect(Token.SYM);
+        if (strTok.charAt(0) == '.')
+            return alias();
         return strTok.equals("null") ? null : strTok;
     }
 
+    // Aliases start with a dot, which is not allowed in class and member names
+    public void define() {
+        expect(Token.SYM);
+        final String name = strTok;
+        if (name.charAt(0) != '.')
+            err("Invalid alias name " + name);
+        final Token got = token();
+        if (got != Token.STR && (got != Token.SYM || strTok.equals("null") || strTok.charAt(0) == '.'))
+            err("Expected alias value");
+        aliases.put(name, strTok);
+    }
+
+    public void clearAliases() {
+        if (aliases.size() > Contexts.MAX_RETAINED)
+            aliases = new HashMap<>();
+        else
+            aliases.clear();
+    }
+
+    private String alias() {
+        final String value = aliases.get(strTok);
+        if (value == null)
+            err("Undefined alias " + strTok);
+        return value;
+    }
+
     public boolean more() {
         lastTok = token();
         return lastTok != Token.RPAR && lastTok != Token.END;
@@ -97,8 +180,14 @@ public final class SExpParser {
     }
 
     public String strVal() {
-        if (isNull())
-            return null;
+        final Token got = token();
+        if (got == Token.SYM) {
+            if (strTok.equals("null"))
+                return null;
+            if (strTok.charAt(0) == '.')
+                return alias();
+        }
+        lastTok = got;
         expect(Token.STR);
         return strTok;
     }
@@ -118,12 +207,17 @@ public final class SExpParser {
     public String[] syms() {
         if (isNull())
             return null;
-        final Stream.Builder<String> list = Stream.builder();
+        int n = 0;
         begin();
-        while (more())
-            list.add(sym());
+        while (more()) {
+            if (n == symBuf.length)
+                symBuf = Arrays.copyOf(symBuf, 2 * symBuf.length);
+            symBuf[n++] = sym();
+        }
         end();
-        return list.build().toArray(String[]::new);
+        final String[] list = Arrays.copyOf(symBuf, n);
+        Arrays.fill(symBuf, 0, n, null);
+        return list;
     }
 
     public boolean isNull() {
@@ -140,7 +234,7 @@ public final class SExpParser {
     public boolean isStrVal() {
         final Token got = token();
         lastTok = got;
-        return got == Token.STR || (got == Token.SYM && strTok.equals("null"));
+        return got == Token.STR || (got == Token.SYM && (strTok.equals("null") || strTok.charAt(0) == '.'));
     }
 
     public boolean isBoolVal() {
@@ -170,7 +264,7 @@ public final class SExpParser {
 
             int c;
             if (lastChar < 0) {
-                c = reader.read();
+                c = read();
             } else {
                 c = lastChar;
                 lastChar = -1;
@@ -181,7 +275,7 @@ public final class SExpParser {
                     return Token.END;
                 if (c != ' ' && c != '\n')
                     break;
-                c = reader.read();
+                c = read();
             }
 
             if (c == '(')
@@ -194,14 +288,14 @@ public final class SExpParser {
                 final int quote = c;
                 final StringBuilder s = new StringBuilder();
                 for (;;) {
-                    c = reader.read();
+                    c = read();
                     if (c < 0)
                         err("Unexpected eof in string");
                     if (c == quote)
                         break;
                     if (c == '\\') {
                         s.append('\\');
-                        c = reader.read();
+                        c = read();
                         if (c < 0)
                             err("Unexpected eof in string");
                     }
@@ -224,14 +318,14 @@ public final class SExpParser {
                     if (c == 'e' || c == 'E' || c == '.' || c == 'f' || c == 'F')
                         integer = false;
                     s.append((char)c);
-                    c = reader.read();
+                    c = read();
                 }
 
                 if (c == 'I') {
                     final String inf = "Infinity";
                     int n = 0;
                     while (c == inf.charAt(n)) {
-                        c = reader.read();
+                        c = read();
                         ++n;
                         if (n == inf.length()) {
                             lastChar = c;
@@ -254,7 +348,7 @@ public final class SExpParser {
             final StringBuilder s = new StringBuilder();
             for (;;) {
                 s.append((char)c);
-                c = reader.read();
+                c = read();
                 if (c < 0 || c == ' ' || c == '\n' || c == '(' || c == ')' || c == '"')
                     break;
             }
@@ -272,6 +366,6 @@ public final class SExpParser {
     }
 
     public void err(final String msg, final Throwable cause) {
-        throw new SExpException(msg + " at line " + (reader.getLineNumber() + 1), cause);
+        throw new SExpException(msg + " at line " + (line + 1), cause);
     }
 }
@@ -1,10 +1,27 @@
 package chasm;
 
-import java.io.Writer;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 
 public final class SExpPrinter {
-    private final PrintWriter p;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[]
+        SPACES = new byte[64],
+        TRUE   = { 't', 'r', 'u', 'e' },
+        FALSE  = { 'f', 'a', 'l', 's', 'e' },
+        NULL   = { 'n', 'u', 'l', 'l' };
+    static {
+        Arrays.fill(SPACES, (byte)' ');
+    }
+
+    private OutputStream out;
+    private boolean compact;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int len = 0;
+    private long flushed = 0;
+    private int line = 0;
     private int indent = 0;
     private enum Pos {
         BEGIN,
@@ -16,13 +33,37 @@ public final class SExpPrinter {
     }
     private Pos pos = Pos.BEGIN;
 
-    public SExpPrinter(final Writer w) {
-        this.p = new PrintWriter(w);
+    public SExpPrinter(final OutputStream o) {
+        this(o, false);
+    }
+
+    // The compact mode prints a single space between atoms only and one top-level form per line
+    public SExpPrinter(final OutputStream o, final boolean c) {
+        reset(o, c);
+    }
+
+    // Starts printing to another stream, keeping the buffer
+    public void reset(final OutputStream o, final boolean c) {
+        out = o;
+        compact = c;
+        len = 0;
+        flushed = 0;
+        line = 0;
+        indent = 0;
+        pos = Pos.BEGIN;
+    }
+
+    public long position() {
+        return flushed + len;
+    }
+
+    public int line() {
+        return line;
     }
 
     public void begin() {
-        space();
-        p.print('(');
+        space(false);
+        put('(');
         pos = Pos.LPAR;
     }
 
@@ -36,12 +77,12 @@ public final class SExpPrinter {
     }
 
     public void end() {
-        p.print(')');
+        put(')');
         pos = Pos.RPAR;
     }
 
     public void endLine() {
-        p.print(')');
+        put(')');
         pos = Pos.END;
     }
 
@@ -58,55 +99,70 @@ public final class SExpPrinter {
     }
 
     public void val(final boolean v) {
-        space();
-        p.print(v);
+        space(true);
+        put(v ? TRUE : FALSE);
     }
 
     public void val(final byte v) {
-        space();
-        p.print(v);
+        val((long)v);
     }
 
     public void val(final short v) {
-        space();
-        p.print(v);
+        val((long)v);
     }
 
     public void val(final char v) {
-        space();
-        p.print('\'');
-        p.print(Escape.escapeChar(v));
-        p.print('\'');
+        space(true);
+        ensure(8);
+        buf[len++] = '\'';
+        len = Escape.escape(v, buf, len);
+        buf[len++] = '\'';
     }
 
     public void val(final long v) {
-        space();
-        p.print(v);
+        space(true);
+        ensure(21);
+        if (v < 0) {
+            buf[len++] = '-';
+            if (v == Long.MIN_VALUE) {
+                // -9223372036854775808 has no positive counterpart
+                putDigits(-(v / 10));
+                buf[len++] = (byte)('0' + -(v % 10));
+                return;
+            }
+            putDigits(-v);
+        } else {
+            putDigits(v);
+        }
     }
 
     public void val(final int v) {
-        space();
-        p.print(v);
+        val((long)v);
     }
 
     public void val(final float v) {
-        space();
-        p.print(v);
+        space(true);
+        put(Float.toString(v));
     }
 
     public void val(final double v) {
-        space();
-        p.print(v);
+        space(true);
+        put(Double.toString(v));
     }
 
     public void val(final String v) {
-        space();
+        space(true);
         if (v == null) {
-            p.print("null");
+            put(NULL);
         } else {
-            p.print('"');
-            p.print(Escape.escapeString(v));
-            p.print('"');
+            final int n = v.length();
+            ensure(2);
+            buf[len++] = '"';
+            for (int i = 0; i < n; ++i) {
+                ensure(7);
+                len = Escape.escape(v.charAt(i), buf, len);
+            }
+            buf[len++] = '"';
         }
     }
 
@@ -122,25 +178,33 @@ public final class SExpPrinter {
     }
 
     public void sym(final String s) {
-        space();
-        p.print(s == null ? "null" : s);
+        space(true);
+        if (s == null)
+            put(NULL);
+        else
+            put(s);
     }
 
     @SuppressWarnings("fallthrough")
-    private void space() {
+    private void space(final boolean atom) {
+        if (compact) {
+            compactSpace(atom);
+            return;
+        }
         switch (pos) {
         case END:
             --indent;
             // fallthrough
 
         case INDENT:
-            p.print('\n');
+            put('\n');
+            ++line;
             ++indent;
             // fallthrough
 
         case BEGIN:
-            for (int i = 0; i < indent; ++i)
-                p.print(' ');
+            for (int i = indent; i > 0; i -= SPACES.length)
+                put(SPACES, Math.min(i, SPACES.length));
             pos = Pos.VAL;
             break;
 
@@ -150,12 +214,118 @@ public final class SExpPrinter {
 
         case RPAR:
         case VAL:
-            p.print(' ');
+            put(' ');
             break;
         }
     }
 
+    @SuppressWarnings("fallthrough")
+    private void compactSpace(final boolean atom) {
+        switch (pos) {
+        case END:
+            --indent;
+            // fallthrough
+
+        case INDENT:
+            ++indent;
+            if (indent == 0) {
+                put('\n');
+                ++line;
+            } else if (atom) {
+                put(' ');
+            }
+            // fallthrough
+
+        case BEGIN:
+        case LPAR:
+        case RPAR:
+            pos = Pos.VAL;
+            break;
+
+        case VAL:
+            if (atom)
+                put(' ');
+            break;
+        }
+    }
+
+    private void putDigits(final long v) {
+        int n = 1;
+        for (long x = v / 10; x != 0; x /= 10)
+            ++n;
+        len += n;
+        long x = v;
+        for (int i = len - 1; n > 0; --i, --n) {
+            buf[i] = (byte)('0' + x % 10);
+            x /= 10;
+        }
+    }
+
+    private void put(final char c) {
+        ensure(1);
+        buf[len++] = (byte)c;
+    }
+
+    private void put(final byte[] b) {
+        put(b, b.length);
+    }
+
+    private void put(final byte[] b, final int n) {
+        ensure(n);
+        System.arraycopy(b, 0, buf, len, n);
+        len += n;
+    }
+
+    // Encodes UTF-8 like String.getBytes, replacing unpaired surrogates by '?'
+    private void put(final String s) {
+        final int n = s.length();
+        for (int i = 0; i < n; ++i) {
+            ensure(4);
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '\n')
+                    ++line;
+                buf[len++] = (byte)c;
+            } else if (c < 0x800) {
+                buf[len++] = (byte)(0xC0 | (c >> 6));
+                buf[len++] = (byte)(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[len++] = (byte)(0xF0 | (cp >> 18));
+                buf[len++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte)(0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[len++] = '?';
+            } else {
+                buf[len++] = (byte)(0xE0 | (c >> 12));
+                buf[len++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buf[len++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void ensure(final int n) {
+        if (len + n > buf.length)
+            drain();
+    }
+
+    private void drain() {
+        try {
+            out.write(buf, 0, len);
+            flushed += len;
+            len = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public void flush() {
-        p.flush();
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -1,68 +1,173 @@
 package chasm;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public final class Server {
     private static final Pattern
-        SPLITTER = Pattern.compile("([^ ]|\\\\ )+"),
+        SPLITTER = Pattern.compile("(\\\\ |[^ ])+"),
         REPLACER = Pattern.compile("\\\\ ");
+    // At least one worker, and no queue at all for sizes of zero or less
+    private static final int
+        WORKERS = Math.max(1, Integer.getInteger("chasm.workers", Runtime.getRuntime().availableProcessors())),
+        QUEUE   = Math.max(0, Integer.getInteger("chasm.queue", 64));
+    private static final long TIMEOUT = Long.getLong("chasm.timeout", 0);
+    private static final long CACHE = Long.getLong("chasm.cache", 64L << 20);
+    private static final long WARMUP = Long.getLong("chasm.warmup", 0);
+    // Each running request may buffer its share of half the heap, and requests with
+    // larger inputs are only admitted if the heap has twice their input size left
+    private static final long
+        BUDGET = Long.getLong("chasm.budget", Runtime.getRuntime().maxMemory() / (2 * WORKERS)),
+        LARGE  = Long.getLong("chasm.large", 16L << 20);
+    private static final int EXIT_TIMEOUT = 124;
+    private static final int PROTOCOL = 1;
+    private static final int HELLO_TIMEOUT = 5000;
+    private static final String CAPABILITIES = "[\"framed\", \"busy\", \"timeout\", \"stats\", \"hello\"]";
 
     public interface Command {
         void run(Path cwd, String[] args, PrintStream out);
     }
 
-    private Server() {
+    private final Command cmd;
+    private final AsyncLog asyncLog;
+    private final PrintStream log;
+    private final AtomicLong requests = new AtomicLong();
+    private final ServerStats stats = new ServerStats();
+    private final ThreadPoolExecutor workers;
+    private final String codeTime = codeTime();
+    private final ScheduledThreadPoolExecutor timer;
+    // Watches run until their client disconnects and therefore neither take a worker nor have a deadline
+    private final ExecutorService watchers = Executors.newCachedThreadPool();
+
+    // At most WORKERS requests run at a time and QUEUE more wait, further requests are answered as busy
+    private Server(final Command c, final AsyncLog l) {
+        cmd = c;
+        asyncLog = l;
+        log = new PrintStream(l.stream(""), true);
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+                                         QUEUE > 0 ? new ArrayBlockingQueue<>(QUEUE) : new SynchronousQueue<>());
+        timer = new ScheduledThreadPoolExecutor(1);
+        // Deadlines of finished requests are removed right away instead of when they expire
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    // Connections mostly wait for input and run on virtual threads where available (Java 21),
+    // while the requests themselves run on a fixed pool sized to the cores.
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
     }
 
     static void main(final Command cmd, final String[] args) {
         if (args.length > 0 && args[0].equals("server")) {
-            if (args.length != 3)
-                throw new IllegalArgumentException("Server command requires two arguments: server portfile logfile");
-            runServer(cmd, Paths.get(args[1]), args[2]);
+            if (args.length == 4 && args[1].equals("--unix"))
+                runServer(cmd, Paths.get(args[2]), args[3], true);
+            else if (args.length == 3)
+                runServer(cmd, Paths.get(args[1]), args[2], false);
+            else
+                throw new IllegalArgumentException("Usage: chasm server portfile logfile | chasm server --unix socketfile logfile");
         } else {
             cmd.run(Paths.get("").toAbsolutePath(), args, System.err);
         }
     }
 
-    private static void handleClient(final Command cmd, final Socket client, final PrintStream log) {
+    // Lines starting with "#id " are framed requests and keep the connection open for further requests,
+    // which run concurrently. Any other line is a single plain request, whose output is written unframed
+    // before the connection is closed. Framed clients must keep the connection open until all responses
+    // arrived, since pending requests are cancelled when it is closed.
+    private void handleClient(final SocketChannel client) {
         try {
-            final BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
-            final PrintStream out = new PrintStream(new TeeOutputStream(log, client.getOutputStream()));
+            final BufferedReader in = new BufferedReader(new InputStreamReader(new ChannelInputStream(client), "UTF-8"));
+            final ChannelOutputStream channelOut = new ChannelOutputStream(client);
+            final OutputStream socketOut = new BufferedOutputStream(channelOut);
+            final ArrayList<Request> pending = new ArrayList<>();
             try {
-                final String line = in.readLine();
+                String line = in.readLine();
+                boolean framed = false;
+                while (line != null && line.startsWith("#")) {
+                    framed = true;
+                    pending.removeIf(r -> r.future.isDone());
+                    submit(line, socketOut, client, true, pending);
+                    line = in.readLine();
+                }
                 if (line != null) {
-                    log.println(line);
-
-                    final ArrayList<String> ms = new ArrayList<>();
-                    final Matcher m = SPLITTER.matcher(line);
-                    while (m.find())
-                        ms.add(m.group());
-                    final String[] args = ms.stream().map(r -> REPLACER.matcher(r).replaceAll(" ")).toArray(String[]::new);
-                    if (args.length == 0)
-                        throw new IllegalArgumentException("Invalid command");
-                    final Path cwd = Paths.get(args[0]);
-                    if (!cwd.isAbsolute())
-                        throw new IllegalArgumentException("Current directory is not absolute");
-                    final String[] rest = new String[args.length - 1];
-                    System.arraycopy(args, 1, rest, 0, rest.length);
-                    cmd.run(cwd, rest, out);
+                    final Request plain = submit(line, socketOut, client, false, pending);
+                    // The worker shuts down the input when the plain request finished, which ends this wait.
+                    // A client closing its side only ends the input, the request is cancelled if the connection
+                    // is reset, while a watch runs until the client closes its side.
+                    while (plain != null && in.read() >= 0) {
+                        // Further input is ignored
+                    }
+                    if (plain != null && plain.watch && plain.isActive())
+                        cancel(pending);
+                } else if (framed) {
+                    cancel(pending);
                 }
-            } catch (Exception e) {
-                e.printStackTrace(out);
+                for (final Request r : pending) {
+                    try {
+                        r.future.get();
+                    } catch (CancellationException e) {
+                        // Timed out or disconnected
+                    }
+                }
+            } catch (IOException e) {
+                cancel(pending);
+                throw e;
+            } catch (InterruptedException e) {
+                cancel(pending);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace(log);
             } finally {
                 client.close();
             }
@@ -71,28 +176,357 @@ public final class Server {
         }
     }
 
-    private static void runServer(final Command cmd, final Path portFile, final String logFile) {
+    private static void cancel(final ArrayList<Request> pending) {
+        for (final Request r : pending)
+            r.cancel(false);
+    }
+
+    // Returns the submitted request, or null if it was answered right away
+    private Request submit(final String line, final OutputStream socketOut, final SocketChannel client,
+                           final boolean framed, final ArrayList<Request> pending) throws IOException {
+        final int space = framed ? line.indexOf(' ') : -1;
+        final String id = !framed ? null : space < 0 ? line.substring(1) : line.substring(1, space);
+        final String command = !framed ? line : space < 0 ? "" : line.substring(space + 1);
+        final long n = requests.incrementAndGet();
+        final String tag = "[" + n + "] ";
+        asyncLog.log(tag + line);
+        final FrameOutputStream frames = framed ? new FrameOutputStream(socketOut, id) : null;
+        final PrintStream out = new PrintStream(new TeeOutputStream(asyncLog.stream(tag), framed ? frames : socketOut));
+        // Handshakes and stats are answered right away, such that they are available when the workers are busy
+        if (command.equals("hello") || command.equals("stats")) {
+            out.println(command.equals("hello") ? hello() : stats.toJson(workers.getQueue().size()));
+            out.flush();
+            if (framed)
+                exit(frames, 0);
+            return null;
+        }
+        final long start = System.nanoTime();
+        final long size = inputSize(command);
+        if (size > LARGE && 2 * size > heapHeadroom())
+            return busy(tag, frames, out, "Server busy: Not enough memory");
+        final String name = commandName(command);
+        final boolean watch = name.equals("watch");
+        final Request request = new Request(watch);
+        try {
+            request.future = (watch ? watchers : workers).submit(() -> {
+                    int status = 1;
+                    if (request.start()) {
+                        stats.begin();
+                        MemoryBudget.bind(new MemoryBudget(BUDGET));
+                        final Events.Span span = Events.request(n, command);
+                        try {
+                            status = runCommand(command, out);
+                        } finally {
+                            span.close();
+                            MemoryBudget.bind(null);
+                            request.stop();
+                            if (request.deadline != null)
+                                request.deadline.cancel(false);
+                            stats.end(stats.command(name), start, status != 0);
+                        }
+                    }
+                    // The worker answers timed out requests itself, such that the timer never writes to the client
+                    if (request.isCancelled()) {
+                        if (!request.timedOut)
+                            return;
+                        stats.timeout();
+                        out.println("Request timed out after " + TIMEOUT + "ms");
+                        status = EXIT_TIMEOUT;
+                    }
+                    out.flush();
+                    if (framed)
+                        exit(frames, status);
+                    else
+                        shutdownInput(client);
+                });
+        } catch (RejectedExecutionException e) {
+            return busy(tag, frames, out, "Server busy");
+        }
+        pending.add(request);
+        if (TIMEOUT > 0 && !watch) {
+            request.deadline = timer.schedule(() -> request.cancel(true), TIMEOUT, TimeUnit.MILLISECONDS);
+            // The request may have finished before its deadline was set
+            if (request.future.isDone())
+                request.deadline.cancel(false);
+        }
+        return request;
+    }
+
+    // Framed requests are answered with a busy frame and the reason is only logged
+    private Request busy(final String tag, final FrameOutputStream frames, final PrintStream out, final String reason)
+        throws IOException {
+        stats.rejected();
+        if (frames != null) {
+            asyncLog.log(tag + reason);
+            frames.busy();
+        } else {
+            out.println(reason);
+            out.flush();
+        }
+        return null;
+    }
+
+    private static void shutdownInput(final SocketChannel client) {
+        try {
+            client.shutdownInput();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void exit(final FrameOutputStream frames, final int status) {
+        try {
+            frames.exit(status);
+        } catch (IOException e) {
+            e.printStackTrace(log);
+        }
+    }
+
+    // The server is stale if its jar was replaced since it started, e.g. by a new version,
+    // such that clients can restart it
+    private String hello() {
+        final Package pkg = Server.class.getPackage();
+        final String version = pkg != null && pkg.getImplementationVersion() != null ? pkg.getImplementationVersion() : "unknown";
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+        return "{\"version\": \"" + version + "\", \"protocol\": " + PROTOCOL + ", \"capabilities\": " + CAPABILITIES
+            + ", \"uptime_ms\": " + ManagementFactory.getRuntimeMXBean().getUptime()
+            + ", \"pid\": " + (name.indexOf('@') > 0 ? name.substring(0, name.indexOf('@')) : "null")
+            + ", \"stale\": " + !codeTime.equals(codeTime()) + "}";
+    }
+
+    private static String codeTime() {
         try {
-            final PrintStream log = new PrintStream(new FileOutputStream(logFile, true));
-            final ExecutorService pool = Executors.newCachedThreadPool();
-            final ServerSocket socket = new ServerSocket(0);
+            return Files.getLastModifiedTime(Paths.get(Server.class.getProtectionDomain().getCodeSource().getLocation().toURI())).toString();
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    // Total size of the files named by the command, directories are not counted
+    private static long inputSize(final String line) {
+        final String[] args = splitCommand(line);
+        if (args.length == 0 || !Paths.get(args[0]).isAbsolute())
+            return 0;
+        final Path cwd = Paths.get(args[0]);
+        long size = 0;
+        for (int i = 1; i < args.length; ++i) {
             try {
-                Files.write(portFile, Integer.toString(socket.getLocalPort()).getBytes());
+                final Path p = cwd.resolve(args[i]);
+                if (Files.isRegularFile(p))
+                    size += Files.size(p);
+            } catch (IOException | InvalidPathException e) {
+                // Not an input file
+            }
+        }
+        return size;
+    }
+
+    // Free heap, based on the usage after the last collection, which does not count garbage
+    private static long heapHeadroom() {
+        long used = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            final MemoryUsage u = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (u != null)
+                used += u.getUsed();
+        }
+        return Runtime.getRuntime().maxMemory() - used;
+    }
+
+    private static String[] splitCommand(final String line) {
+        final ArrayList<String> ms = new ArrayList<>();
+        final Matcher m = SPLITTER.matcher(line);
+        while (m.find())
+            ms.add(m.group());
+        return ms.stream().map(r -> REPLACER.matcher(r).replaceAll(" ")).toArray(String[]::new);
+    }
+
+    // Requests are grouped by their mode or by the file types they convert, e.g. "jar-chasm"
+    private static String commandName(final String line) {
+        final String[] args = splitCommand(line);
+        final StringBuilder b = new StringBuilder();
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equals("--merge") || args[i].equals("--watch"))
+                return args[i].substring(2);
+            if (args[i].equals("--class")) {
+                ++i;
+            } else if (!args[i].startsWith("-")) {
+                final String name = args[i].substring(args[i].lastIndexOf('/') + 1);
+                final int dot = name.lastIndexOf('.');
+                b.append(b.length() > 0 ? "-" : "").append(dot < 0 ? "dir" : name.substring(dot + 1));
+            }
+        }
+        return b.length() > 0 ? b.toString() : "invalid";
+    }
+
+    private int runCommand(final String line, final PrintStream out) {
+        try {
+            final String[] args = splitCommand(line);
+            if (args.length == 0)
+                throw new IllegalArgumentException("Invalid command");
+            final Path cwd = Paths.get(args[0]);
+            if (!cwd.isAbsolute())
+                throw new IllegalArgumentException("Current directory is not absolute");
+            final String[] rest = new String[args.length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            cmd.run(cwd, rest, out);
+            return 0;
+        } catch (Exception e) {
+            // Cancelled requests are answered by the worker
+            if (!Request.isCurrentCancelled())
+                e.printStackTrace(out);
+            return 1;
+        }
+    }
+
+    // UnixDomainSocketAddress and ServerSocketChannel.open(ProtocolFamily) require Java 16.
+    // The socket is only accessible by the owner.
+    private static SocketAddress unixAddress(final Path file) throws IOException {
+        try {
+            return (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class).invoke(null, file);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets require Java 16", e);
+        }
+    }
+
+    // The socket is bound in a new private directory and moved into place after its permissions
+    // are restricted, such that other users can never connect to it
+    private static ServerSocketChannel openUnixSocket(final Path file) throws IOException {
+        final ServerSocketChannel channel;
+        try {
+            channel = (ServerSocketChannel)ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets require Java 16", e);
+        }
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.deleteIfExists(file);
+            return channel.bind(unixAddress(file));
+        }
+        final Path dir = Files.createTempDirectory(file.toAbsolutePath().getParent(), ".chasm",
+                                                   PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        final Path tmp = dir.resolve("s");
+        try {
+            channel.bind(unixAddress(tmp));
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            Files.delete(dir);
+        }
+        return channel;
+    }
+
+    // A port file or socket is only taken over if no server answers the handshake on it,
+    // otherwise it was left behind by a server which did not shut down
+    private static boolean isRunning(final Path file, final boolean unix) {
+        if (!Files.exists(file))
+            return false;
+        try {
+            final SocketAddress address = unix ? unixAddress(file)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(new String(Files.readAllBytes(file), "UTF-8").trim()));
+            try (SocketChannel channel = SocketChannel.open(address)) {
+                channel.write(ByteBuffer.wrap("hello\n".getBytes("UTF-8")));
+                final String line = readLine(channel, HELLO_TIMEOUT);
+                return line != null && line.startsWith("{\"version\"");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Reads the first line of the answer, or returns null if none arrives in time,
+    // such that a server which accepts but does not answer cannot block the caller
+    private static String readLine(final SocketChannel channel, final long timeout) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(4096);
+        final long deadline = System.currentTimeMillis() + timeout;
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (buf.hasRemaining()) {
+                final long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    return null;
+                selector.select(left);
+                selector.selectedKeys().clear();
+                if (channel.read(buf) < 0)
+                    return null;
+                final String text = new String(buf.array(), 0, buf.position(), "UTF-8");
+                if (text.indexOf('\n') >= 0)
+                    return text.substring(0, text.indexOf('\n'));
+            }
+            return null;
+        }
+    }
+
+    // Identifies the port file by its port and the socket by its inode,
+    // such that a server only removes its own file and not one of a newer server
+    private static Object fileId(final Path file, final boolean unix) throws IOException {
+        try {
+            return unix ? Files.readAttributes(file, BasicFileAttributes.class).fileKey()
+                : new String(Files.readAllBytes(file), "UTF-8").trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void runServer(final Command cmd, final Path file, final String logFile, final boolean unix) {
+        if (isRunning(file, unix))
+            throw new IllegalStateException("Server is already running on " + file);
+        try {
+            final AsyncLog asyncLog = new AsyncLog(new FileOutputStream(logFile, true));
+            final Server server = new Server(cmd, asyncLog);
+            // Clients wait for the port file or socket, which appear only after the warm-up
+            if (WARMUP > 0)
+                Warmup.run(WARMUP, server.log);
+            final ClassCache cache = CACHE > 0 ? new ClassCache(CACHE) : null;
+            Pipeline.setCache(cache);
+            Pipeline.setStats(server.stats);
+            final PrintStream log = server.log;
+            final ExecutorService connections = connectionExecutor();
+            final ServerSocketChannel socket = unix ? openUnixSocket(file) : ServerSocketChannel.open().bind(new InetSocketAddress(0));
+            try {
+                final String address;
+                if (unix) {
+                    address = "socket " + file;
+                } else {
+                    final int port = ((InetSocketAddress)socket.getLocalAddress()).getPort();
+                    // Written atomically, since clients poll for the port file
+                    final Path tmp = Files.write(file.resolveSibling(file.getFileName() + ".tmp"), Integer.toString(port).getBytes());
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    address = "port " + port;
+                }
+                final Object id = fileId(file, unix);
                 Runtime.getRuntime().addShutdownHook(new Thread() {
                         public void run() {
                             try {
-                                Files.delete(portFile);
+                                if (id != null && id.equals(fileId(file, unix)))
+                                    Files.deleteIfExists(file);
+                                if (cache != null)
+                                    log.println(cache);
                                 log.println("Server terminated");
                             } catch (IOException e) {
                                 e.printStackTrace(log);
+                            } finally {
+                                try {
+                                    asyncLog.close();
+                                } catch (IOException e) {
+                                    e.printStackTrace();
+                                }
                             }
                         }
                     });
-                log.println("Server started on port " + socket.getLocalPort());
+                log.println("Server started on " + address);
                 for (;;) {
                     try {
-                        final Socket client = socket.accept();
-                        pool.execute(() -> handleClient(cmd, client, log));
+                        final SocketChannel client = socket.accept();
+                        connections.execute(() -> server.handleClient(client));
                     } catch (IOException e) {
                         e.printStackTrace(log);
                     }
@@ -101,10 +535,165 @@ public final class Server {
                 e.printStackTrace(log);
             } finally {
                 socket.close();
-                pool.shutdown();
+                connections.shutdown();
+                server.workers.shutdown();
+                server.watchers.shutdown();
+                server.timer.shutdown();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    // Requests are cancelled by interrupting the worker, which must not happen while it writes to the
+    // channel, since an interrupted channel operation closes the channel. A cancellation during a write
+    // is completed by the writer once the write returned, such that cancelling never blocks.
+    private static final class Request {
+        private static final int QUEUED = 0, RUNNING = 1, WRITING = 2, INTERRUPTING = 3, CANCELLING = 4,
+            CANCELLED = 5, STOPPED = 6;
+        private static final ThreadLocal<Request> CURRENT = new ThreadLocal<>();
+
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private volatile Thread worker;
+        private volatile Future<?> future;
+        private volatile ScheduledFuture<?> deadline;
+        private volatile boolean timedOut;
+        private final boolean watch;
+
+        Request(final boolean w) {
+            watch = w;
+        }
+
+        // Returns false if the request was cancelled before it started
+        boolean start() {
+            worker = Thread.currentThread();
+            if (!state.compareAndSet(QUEUED, RUNNING))
+                return false;
+            CURRENT.set(this);
+            return true;
+        }
+
+        // No interrupts are delivered after the request stopped
+        void stop() {
+            CURRENT.remove();
+            for (;;) {
+                final int s = state.get();
+                if (s == INTERRUPTING)
+                    Thread.yield();
+                else if (s == CANCELLED || state.compareAndSet(s, STOPPED))
+                    break;
+            }
+            Thread.interrupted();
+            worker = null;
+        }
+
+        // Queued or running, and not cancelled
+        boolean isActive() {
+            return state.get() < INTERRUPTING;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        static boolean isCurrentCancelled() {
+            final Request r = CURRENT.get();
+            return r != null && r.state.get() >= INTERRUPTING;
+        }
+
+        // Queued requests are dropped, unless they timed out and must be answered
+        void cancel(final boolean timeout) {
+            timedOut = timeout;
+            for (;;) {
+                final int s = state.get();
+                if (s == QUEUED && state.compareAndSet(QUEUED, CANCELLED)) {
+                    if (!timeout)
+                        future.cancel(false);
+                    return;
+                }
+                if (s == RUNNING && state.compareAndSet(RUNNING, INTERRUPTING)) {
+                    worker.interrupt();
+                    state.set(CANCELLED);
+                    return;
+                }
+                if (s == WRITING && state.compareAndSet(WRITING, CANCELLING))
+                    return;
+                if (s >= INTERRUPTING)
+                    return;
+            }
+        }
+
+        // Returns the request of the current thread if it may be interrupted during the write
+        static Request beginWrite() {
+            final Request r = CURRENT.get();
+            if (r == null)
+                return null;
+            for (;;) {
+                final int s = r.state.get();
+                if (s == INTERRUPTING)
+                    Thread.yield();
+                else if (s == RUNNING && r.state.compareAndSet(RUNNING, WRITING))
+                    return r;
+                else if (s != RUNNING)
+                    return null;
+            }
+        }
+
+        void endWrite() {
+            if (!state.compareAndSet(WRITING, RUNNING)) {
+                state.set(CANCELLED);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Channels.newInputStream and newOutputStream may serialize reads and writes on one lock,
+    // which would block responses while the connection waits for the next request
+    private static final class ChannelInputStream extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInputStream(final SocketChannel c) {
+            channel = c;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private static final class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(final SocketChannel c) {
+            channel = c;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            final Request r = Request.beginWrite();
+            final boolean interrupted = Thread.interrupted();
+            try {
+                final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining())
+                    channel.write(buf);
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+                if (r != null)
+                    r.endWrite();
+            }
+        }
+    }
 }
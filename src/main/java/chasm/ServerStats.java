@@ -0,0 +1,173 @@
+package chasm;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Request counters and latency histograms of the server. The counters are striped,
+// such that concurrent requests do not contend on the hot path.
+public final class ServerStats {
+    private static final int MAX_COMMANDS = 64;
+    // Each power of two is split into 4 buckets, which bounds the error of the percentiles by 25%
+    private static final int SUB_BUCKETS = 4, BUCKETS = 64 * SUB_BUCKETS;
+
+    public static final class Latency {
+        private final LongAdder count = new LongAdder(), errors = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Latency() {
+            for (int i = 0; i < BUCKETS; ++i)
+                buckets[i] = new LongAdder();
+        }
+
+        public void record(final long micros, final boolean error) {
+            count.increment();
+            if (error)
+                errors.increment();
+            buckets[bucket(micros)].increment();
+            max.accumulate(micros);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        // Upper bound of the bucket containing the percentile, in microseconds
+        public long percentile(final double p) {
+            final long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0)
+                return 0;
+            final long rank = Math.max(1, (long)Math.ceil(p * total));
+            long sum = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                sum += counts[i];
+                if (sum >= rank)
+                    return Math.min(upperBound(i), getMax());
+            }
+            return getMax();
+        }
+
+        private static int bucket(final long micros) {
+            if (micros < SUB_BUCKETS)
+                return (int)Math.max(micros, 0);
+            final int exp = 63 - Long.numberOfLeadingZeros(micros);
+            return exp * SUB_BUCKETS + (int)((micros >>> (exp - 2)) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBound(final int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            final int exp = bucket / SUB_BUCKETS;
+            return ((long)(SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << (exp - 2)) - 1;
+        }
+    }
+
+    private final long start = System.nanoTime();
+    private final ConcurrentHashMap<String, Latency> commands = new ConcurrentHashMap<>();
+    private final LongAdder inFlight = new LongAdder(), rejected = new LongAdder(), timeouts = new LongAdder(),
+        classes = new LongAdder(), bytes = new LongAdder();
+
+    public Latency command(final String name) {
+        final Latency l = commands.get(name);
+        if (l != null)
+            return l;
+        return commands.computeIfAbsent(commands.size() < MAX_COMMANDS ? name : "other", k -> new Latency());
+    }
+
+    public void begin() {
+        inFlight.increment();
+    }
+
+    public void end(final Latency l, final long startNanos, final boolean error) {
+        inFlight.decrement();
+        l.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos), error);
+    }
+
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public void timeout() {
+        timeouts.increment();
+    }
+
+    // Classes read by pipelines and class file bytes read or written
+    public void addClass() {
+        classes.increment();
+    }
+
+    public void addBytes(final long n) {
+        bytes.add(n);
+    }
+
+    public String toJson(final int queued) {
+        final StringBuilder b = new StringBuilder();
+        b.append("{\"uptime_ms\": ").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+            .append(", \"in_flight\": ").append(inFlight.sum())
+            .append(", \"queued\": ").append(queued)
+            .append(", \"rejected\": ").append(rejected.sum())
+            .append(", \"timeouts\": ").append(timeouts.sum())
+            .append(", \"classes\": ").append(classes.sum())
+            .append(", \"bytes\": ").append(bytes.sum());
+        final Runtime rt = Runtime.getRuntime();
+        long gcCount = 0, gcTime = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+            gcTime += Math.max(gc.getCollectionTime(), 0);
+        }
+        b.append(", \"heap\": {\"used\": ").append(rt.totalMemory() - rt.freeMemory())
+            .append(", \"committed\": ").append(rt.totalMemory())
+            .append(", \"max\": ").append(rt.maxMemory())
+            .append("}, \"gc\": {\"count\": ").append(gcCount)
+            .append(", \"time_ms\": ").append(gcTime)
+            .append("}, \"commands\": {");
+        boolean first = true;
+        for (final Map.Entry<String, Latency> e : new TreeMap<>(commands).entrySet()) {
+            final Latency l = e.getValue();
+            if (!first)
+                b.append(", ");
+            first = false;
+            quote(b, e.getKey());
+            b.append(": {\"count\": ").append(l.getCount())
+                .append(", \"errors\": ").append(l.getErrors())
+                .append(", \"p50_us\": ").append(l.percentile(0.5))
+                .append(", \"p99_us\": ").append(l.percentile(0.99))
+                .append(", \"max_us\": ").append(l.getMax())
+                .append('}');
+        }
+        return b.append("}}").toString();
+    }
+
+    private static void quote(final StringBuilder b, final String s) {
+        b.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c < 0x20)
+                b.append(String.format("\\u%04x", (int)c));
+            else
+                b.append(c);
+        }
+        b.append('"');
+    }
+}
@@ -0,0 +1,51 @@
+package chasm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// Runs the classes of chasm and ASM through disassembly and assembly with frames,
+// such that the JIT compiled the hot paths before the server accepts requests
+final class Warmup {
+    private static final String[] CORPUS = {
+        "chasm/ClassParser", "chasm/ClassPrinter", "chasm/ClassBuilder", "chasm/Pipeline", "chasm/SExpParser",
+        "org/objectweb/asm/ClassReader", "org/objectweb/asm/ClassWriter", "org/objectweb/asm/MethodWriter",
+        "org/objectweb/asm/Frame",
+    };
+
+    private Warmup() {
+    }
+
+    // Training run of the AppCDS archive, which runs the corpus once
+    public static void main(final String[] args) throws IOException {
+        run(args.length > 0 ? Long.parseLong(args[0]) : 0, System.err);
+    }
+
+    static void run(final long millis, final PrintStream log) throws IOException {
+        final TreeMap<String, byte[]> corpus = new TreeMap<>();
+        for (final String name : CORPUS) {
+            try (InputStream in = Warmup.class.getClassLoader().getResourceAsStream(name + ".class")) {
+                if (in != null)
+                    corpus.put(name, Pipeline.readAllBytes(in));
+            }
+        }
+        if (corpus.isEmpty())
+            return;
+        final Pipeline pipeline = new Pipeline(Pipeline.FRAMES, log);
+        final long start = System.nanoTime(), end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        int rounds = 0;
+        do {
+            final ByteArrayOutputStream chasm = new ByteArrayOutputStream();
+            Pipeline.run(pipeline.mapInput(corpus), pipeline.chasmOutput(chasm));
+            Pipeline.run(pipeline.chasmInput(new ByteArrayInputStream(chasm.toByteArray())), pipeline.mapOutput(new HashMap<>()));
+            ++rounds;
+        } while (System.nanoTime() < end);
+        log.println("Warm-up finished after " + rounds + " rounds in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+}
@@ -0,0 +1,174 @@
+package chasm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Watches chasm files and reassembles the changed top-level class forms into a
+// jar file or class directory. The pipeline and its tables stay alive between rebuilds.
+public final class Watcher {
+    private static final long DEBOUNCE_MS = 200;
+
+    private final Pipeline pipeline;
+    private final Path input, output;
+    private final PrintStream log;
+    // Class names of the forms of each input file, keyed by the form text
+    private final HashMap<Path, HashMap<ByteBuffer, String>> files = new HashMap<>();
+
+    public Watcher(final Pipeline p, final Path in, final Path out, final PrintStream l) {
+        pipeline = p;
+        input = in;
+        output = out;
+        log = l;
+    }
+
+    public void run() throws IOException {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            if (Files.isDirectory(input))
+                registerAll(ws, input);
+            else
+                register(ws, input.getParent());
+            // Classes already in the output jar or directory are kept, and replaced once assembled
+            if (!output.toString().endsWith(".jar"))
+                Files.createDirectories(output);
+            update(chasmFiles(input));
+            for (;;) {
+                final TreeSet<Path> changed = new TreeSet<>();
+                WatchKey key = ws.take();
+                // Collect events until the files are quiet
+                while (key != null) {
+                    collect(ws, key, changed);
+                    key = ws.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+                update(changed);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void collect(final WatchService ws, final WatchKey key, final TreeSet<Path> changed) throws IOException {
+        final Path dir = (Path)key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.addAll(chasmFiles(input));
+                changed.addAll(files.keySet());
+                continue;
+            }
+            final Path path = dir.resolve((Path)event.context());
+            if (Files.isDirectory(input) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                registerAll(ws, path);
+                changed.addAll(chasmFiles(path));
+            } else if (isChasmFile(path) && (Files.isDirectory(input) || path.equals(input))) {
+                changed.add(path);
+            }
+        }
+        key.reset();
+    }
+
+    private void update(final Iterable<Path> changed) throws IOException {
+        final TreeMap<String, byte[]> classes = new TreeMap<>();
+        final TreeSet<String> removed = new TreeSet<>();
+        for (final Path path : changed) {
+            if (Thread.interrupted())
+                throw new InterruptedIOException();
+            try {
+                updateFile(path, classes, removed);
+            } catch (IOException | RuntimeException e) {
+                log.println(path + ": " + e.getMessage());
+            }
+        }
+        removed.removeAll(classes.keySet());
+        if (classes.isEmpty() && removed.isEmpty())
+            return;
+        pipeline.updateClasses(output, classes, removed);
+        for (final String name : classes.keySet())
+            log.println("Assembled " + name);
+        for (final String name : removed)
+            log.println("Removed " + name);
+        log.flush();
+    }
+
+    private void updateFile(final Path path, final TreeMap<String, byte[]> classes, final TreeSet<String> removed)
+        throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            final HashMap<ByteBuffer, String> old = files.remove(path);
+            if (old != null)
+                removed.addAll(old.values());
+            return;
+        }
+        int[] blocks = ParallelClassParser.scan(data);
+        if (blocks == null)
+            blocks = new int[] { 0, data.length, 0 };
+        final HashMap<ByteBuffer, String> old = files.getOrDefault(path, new HashMap<>());
+        final HashMap<ByteBuffer, String> current = new HashMap<>();
+        // Assemble all new forms before touching the output, such that a parse error
+        // leaves the previous state of the file intact
+        final TreeMap<String, byte[]> assembled = new TreeMap<>();
+        for (int i = 0; i < blocks.length; i += 3) {
+            final ByteBuffer form = ByteBuffer.wrap(Arrays.copyOfRange(data, blocks[i], blocks[i + 1]));
+            String name = old.get(form);
+            if (name == null) {
+                final TreeMap<String, byte[]> map = new TreeMap<>();
+                Pipeline.run(Contexts.input(new InputStreamReader(new ByteArrayInputStream(form.array()), StandardCharsets.UTF_8),
+                                            blocks[i + 2]), pipeline.mapOutput(map));
+                if (map.size() != 1)
+                    throw new IOException("Expected one class in form at line " + (blocks[i + 2] + 1));
+                name = map.firstKey();
+                assembled.putAll(map);
+            }
+            current.put(form, name);
+        }
+        files.put(path, current);
+        classes.putAll(assembled);
+        removed.addAll(old.values());
+        removed.removeAll(current.values());
+    }
+
+    private static boolean isChasmFile(final Path path) {
+        return path.toString().endsWith(".chasm");
+    }
+
+    private static ArrayList<Path> chasmFiles(final Path path) throws IOException {
+        if (!Files.isDirectory(path))
+            return new ArrayList<>(Arrays.asList(path));
+        try (Stream<Path> s = Files.walk(path)) {
+            return s.filter(p -> isChasmFile(p) && Files.isRegularFile(p)).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static void register(final WatchService ws, final Path dir) throws IOException {
+        dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                     StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    private static void registerAll(final WatchService ws, final Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (final Path p : (Iterable<Path>)s.filter(Files::isDirectory)::iterator)
+                register(ws, p);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package chasm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Decodes UTF-8 bytes into a Writer, keeping incomplete sequences for the next write
+final class WriterOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    WriterOutputStream(final Writer w) {
+        out = w;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int i = off;
+        final int end = off + len;
+        while (i < end) {
+            final int n = Math.min(end - i, in.remaining());
+            in.put(b, i, n);
+            i += n;
+            decode(false);
+        }
+    }
+
+    private void decode(final boolean endOfInput) throws IOException {
+        in.flip();
+        CoderResult r;
+        do {
+            r = decoder.decode(in, chars, endOfInput);
+            drain();
+        } while (r.isOverflow());
+        in.compact();
+    }
+
+    private void drain() throws IOException {
+        out.write(chars.array(), 0, chars.position());
+        chars.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        decode(true);
+        decoder.flush(chars);
+        drain();
+        out.close();
+    }
+}
@@ -0,0 +1,23 @@
+package chasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public final class AsyncLogTest {
+    @Test
+    public void tagTest() throws IOException {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final AsyncLog log = new AsyncLog(file);
+        final PrintStream a = new PrintStream(log.stream("[1] "), true, "UTF-8");
+        a.println("first");
+        log.log("plain");
+        a.print("second\r\nthird");
+        a.close();
+        log.close();
+        assertEquals("[1] first\nplain\n[1] second\n[1] third\n", new String(file.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
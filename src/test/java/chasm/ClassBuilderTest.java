@@ -0,0 +1,60 @@
+package chasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import static org.junit.Assert.assertEquals;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+public final class ClassBuilderTest {
+    private static void build(final ClassWriter w) {
+        ClassBuilder.clazz(w, V1_8, "public super", "Sum", null, "java/lang/Object")
+            .method("public static", "sum", "(I)I", null)
+            .code()
+            .iconst0().istore(1)
+            .label("Lloop").iload(0).ifle("L0")
+            .iload(1).iload(0).iadd().istore(1)
+            .iinc(0, -1).goTo("Lloop")
+            .label("L0").iload(1).ireturn()
+            .maxs(0, 0)
+            .end()
+            .end()
+            .end();
+    }
+
+    @Test
+    public void sumTest() throws ReflectiveOperationException {
+        final ClassWriter w = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        build(w);
+        final Class<?> c = new ByteClassLoader().loadClass(w.toByteArray());
+        assertEquals(55, c.getMethod("sum", int.class).invoke(null, 10));
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        final ClassWriter w = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        build(w);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ClassPrinter printer = new ClassPrinter(out);
+        new ClassReader(w.toByteArray()).accept(printer, 0);
+        printer.close();
+        final ClassNode node = new ClassNode();
+        new ClassParser(new StringReader(new String(out.toByteArray(), StandardCharsets.UTF_8))).read(node);
+        assertEquals(ACC_PUBLIC | ACC_SUPER, node.access);
+        assertEquals(ACC_PUBLIC | ACC_STATIC, node.methods.get(0).access);
+        assertEquals(16, node.methods.get(0).instructions.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidAccessTest() {
+        ClassBuilder.access("public sttic");
+    }
+}
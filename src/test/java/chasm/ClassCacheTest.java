@@ -0,0 +1,24 @@
+package chasm;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class ClassCacheTest {
+    @Test
+    public void evictionTest() {
+        final ClassCache cache = new ClassCache(10);
+        cache.put("a", "A", 4);
+        cache.put("b", "B", 4);
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C", 4);
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        cache.put("d", "D", 11);
+        assertNull(cache.get("d"));
+        assertEquals(8, cache.getSize());
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+}
@@ -0,0 +1,77 @@
+package chasm;
+
+import java.io.StringReader;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public final class ClassParserTest {
+    private static MethodNode parse(final String code) {
+        return parse("", code);
+    }
+
+    private static MethodNode parse(final String defines, final String code) {
+        final ClassNode node = new ClassNode();
+        new ClassParser(new StringReader(
+            "(class 52 (public super) Test null java/lang/Object () " + defines
+            + " (method (public static) test \"(I)V\" null null (code " + code + ")))")).read(node);
+        node.accept(new ClassWriter(ClassWriter.COMPUTE_MAXS));
+        return node.methods.get(0);
+    }
+
+    private static LabelNode target(final MethodNode m, final int i) {
+        return ((JumpInsnNode)m.instructions.get(i)).label;
+    }
+
+    @Test
+    public void labelTest() {
+        final MethodNode m = parse("(goto L1) (goto L01) (goto Lend) (goto L1000000) (label L1) (label L01)"
+                                   + " (label Lend) (label L1000000) (goto L1) (goto Lend) (return)");
+        assertSame(target(m, 0), m.instructions.get(4));
+        assertSame(target(m, 1), m.instructions.get(5));
+        assertSame(target(m, 2), m.instructions.get(6));
+        assertSame(target(m, 3), m.instructions.get(7));
+        assertSame(target(m, 8), target(m, 0));
+        assertSame(target(m, 9), target(m, 2));
+        assertNotSame(target(m, 0), target(m, 1));
+        assertEquals(11, m.instructions.size());
+    }
+
+    @Test
+    public void aliasTest() {
+        final MethodNode m = parse("(define .0 java/io/PrintStream) (define .1 \"(I)V\")",
+                                   "(aconst_null) (iload 0) (invokevirtual .0 println .1) (return)");
+        final MethodInsnNode insn = (MethodInsnNode)m.instructions.get(2);
+        assertEquals("java/io/PrintStream", insn.owner);
+        assertEquals("(I)V", insn.desc);
+        assertEquals("(I)V", m.desc);
+    }
+
+    @Test(expected = SExpParser.SExpException.class)
+    public void undefinedAliasTest() {
+        parse("(aconst_null) (iload 0) (invokevirtual .0 println \"(I)V\") (return)");
+    }
+
+    @Test
+    public void resetTest() {
+        final ClassParser parser = new ClassParser(new StringReader("(class 52 (public) A null java/lang/Object ()\r\n (bogus))"));
+        try {
+            parser.read(new ClassNode());
+            fail();
+        } catch (SExpParser.SExpException e) {
+            assertEquals("Unexpected symbol bogus at line 2", e.getMessage());
+        }
+        parser.reset(new StringReader("(class 52 (public) B null java/lang/Object ())"), 0);
+        final ClassNode node = new ClassNode();
+        parser.read(node);
+        assertEquals("B", node.name);
+    }
+}
@@ -0,0 +1,43 @@
+package chasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ClassPrinterTest {
+    @Test
+    public void labelInfoTest() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ClassPrinter printer = new ClassPrinter(out);
+        final ClassVisitor cv = printer.write();
+        final Label a = new Label(), b = new Label();
+        a.info = "a";
+        cv.visit(52, Opcodes.ACC_PUBLIC, "Test", null, "java/lang/Object", null);
+        for (int i = 0; i < 2; ++i) {
+            final MethodVisitor mv = cv.visitMethod(Opcodes.ACC_STATIC, "m" + i, "()V", null, null);
+            mv.visitCode();
+            mv.visitJumpInsn(Opcodes.GOTO, i == 0 ? b : a);
+            mv.visitLabel(a);
+            mv.visitJumpInsn(Opcodes.GOTO, i == 0 ? a : b);
+            mv.visitLabel(b);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cv.visitEnd();
+        printer.close();
+        // Labels are numbered per method and their info is restored afterwards
+        final String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(s, s.contains("(goto L0)\n   (label L1)\n   (goto L1)\n   (label L0)"));
+        assertTrue(s, s.contains("(goto L0)\n   (label L0)\n   (goto L1)\n   (label L1)"));
+        assertEquals("a", a.info);
+        assertEquals(null, b.info);
+    }
+}
@@ -0,0 +1,24 @@
+package chasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public final class FrameOutputStreamTest {
+    @Test
+    public void frameTest() throws IOException {
+        final ByteArrayOutputStream socket = new ByteArrayOutputStream();
+        final FrameOutputStream frames = new FrameOutputStream(socket, "7");
+        final PrintStream out = new PrintStream(frames, false, "UTF-8");
+        out.print("hello\nw\u00f6rld");
+        out.flush();
+        frames.exit(0);
+        frames.exit(1);
+        frames.write(1);
+        frames.flush();
+        assertEquals("#7 out 12\nhello\nw\u00f6rld#7 exit 0\n", new String(socket.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,58 @@
+package chasm;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.objectweb.asm.tree.ClassNode;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ParallelClassParserTest {
+    private static int[] scan(final String s) {
+        return ParallelClassParser.scan(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void scanTest() {
+        assertArrayEquals(new int[] { 0, 3, 0, 4, 18, 1, 20, 34, 3 },
+                          scan("(a)\n(b \")\" ')' c')\n\n(d (\"\\\"(\" -1))\n"));
+        assertArrayEquals(new int[0], scan(" \n"));
+        assertNull(scan("(a) b"));
+        assertNull(scan("(a))"));
+        assertNull(scan("((a)"));
+        assertNull(scan("(a \")"));
+    }
+
+    @Test
+    public void scanLineBreakTest() {
+        // \r\n and \r are line breaks like \n, also when escaped in strings
+        assertArrayEquals(new int[] { 0, 3, 0, 5, 8, 1, 9, 20, 2, 22, 25, 4 },
+                          scan("(a)\r\n(b)\r(c \"x\\\r\ny\")\r\n(d)"));
+        assertArrayEquals(new int[] { 0, 7, 0 }, scan("(a\rb\nc)"));
+    }
+
+    @Test
+    public void errorLineTest() throws Exception {
+        errorLine("\n");
+        errorLine("\r\n");
+    }
+
+    private static void errorLine(final String nl) throws Exception {
+        final String cls = "(class 52 (public super) A null java/lang/Object ())" + nl;
+        final ClassInput in = ParallelClassParser.create(
+            (cls + cls + nl + "(class 52 (public super) A null java/lang/Object ()" + nl + " (foo))" + nl + cls)
+            .getBytes(StandardCharsets.UTF_8));
+        assertTrue(in instanceof ParallelClassParser);
+        assertEquals(true, in.read(new ClassNode()));
+        assertEquals(true, in.read(new ClassNode()));
+        try {
+            in.read(new ClassNode());
+            throw new AssertionError("Expected parser error");
+        } catch (SExpParser.SExpException e) {
+            assertEquals("Unexpected symbol foo at line 5", e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+}
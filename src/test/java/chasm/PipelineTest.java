@@ -0,0 +1,137 @@
+package chasm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.tree.ClassNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PipelineTest {
+    private static final String SOURCE =
+        "(class 52 (public super) test/A null java/lang/Object ()\n"
+        + " (method (public static) get \"()I\" null null (code (bipush 42) (ireturn) (maxs 1 0))))\n"
+        + "(class 52 (public super) test/B null test/A ()\n"
+        + " (method (public static) get \"()I\" null null (code (invokestatic test/A get \"()I\") (ireturn) (maxs 1 0))))\n";
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path write(final String name, final String source) throws IOException {
+        return Files.write(tmp.getRoot().toPath().resolve(name), source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Object merge(final Pipeline.Duplicates duplicates) throws IOException, ReflectiveOperationException {
+        final Path a = write("a.chasm", SOURCE);
+        final Path b = write("b.chasm", SOURCE.replace("bipush 42", "bipush 43"));
+        final Path jar = tmp.getRoot().toPath().resolve("merged.jar");
+        Files.deleteIfExists(jar);
+        final Pipeline pipeline = new Pipeline(0, System.err);
+        pipeline.merge(Arrays.asList(a, b), jar, duplicates);
+        final ByteClassLoader loader = new ByteClassLoader();
+        Pipeline.run(pipeline.jarInput(Files.newInputStream(jar)), pipeline.loaderOutput(loader));
+        return loader.loadClass("test.B").getMethod("get").invoke(null);
+    }
+
+    @Test
+    public void mergeTest() throws IOException, ReflectiveOperationException {
+        assertEquals(42, merge(Pipeline.Duplicates.FIRST));
+        assertEquals(43, merge(Pipeline.Duplicates.LAST));
+    }
+
+    @Test(expected = IOException.class)
+    public void mergeDuplicateTest() throws IOException, ReflectiveOperationException {
+        merge(Pipeline.Duplicates.ERROR);
+    }
+
+    @Test
+    public void loaderTest() throws IOException, ReflectiveOperationException {
+        final Pipeline pipeline = new Pipeline(0, System.err);
+        final ByteClassLoader loader = new ByteClassLoader();
+        Pipeline.run(pipeline.chasmInput(new StringReader(SOURCE)), pipeline.loaderOutput(loader));
+        assertEquals(42, loader.loadClass("test.B").getMethod("get").invoke(null));
+    }
+
+    @Test
+    public void jarTest() throws IOException {
+        final Pipeline pipeline = new Pipeline(0, System.err);
+        final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        Pipeline.run(pipeline.chasmInput(new StringReader(SOURCE)), pipeline.jarOutput(jar));
+
+        final TreeMap<String, byte[]> classes = new TreeMap<>();
+        Pipeline.run(pipeline.jarInput(new ByteArrayInputStream(jar.toByteArray())), pipeline.mapOutput(classes));
+        assertEquals("[test/A, test/B]", classes.keySet().toString());
+
+        final StringWriter out = new StringWriter();
+        Pipeline.run(pipeline.mapInput(classes), pipeline.chasmOutput(out));
+        assertTrue(out.toString().startsWith("(class 52 (public super) test/A null java/lang/Object ()"));
+        assertTrue(out.toString().contains("(class 52 (public super) test/B null test/A ()"));
+    }
+
+    @Test
+    public void cachedJarTest() throws IOException {
+        // The server caches printed classes of jars, which only applies to chasm outputs
+        final Pipeline pipeline = new Pipeline(0, System.err);
+        final Path jar = tmp.getRoot().toPath().resolve("in.jar");
+        Pipeline.run(pipeline.chasmInput(new StringReader(SOURCE)), pipeline.jarOutput(Files.newOutputStream(jar)));
+        final Path dir = tmp.newFolder("classes").toPath();
+        Pipeline.setCache(new ClassCache(1 << 20));
+        try {
+            pipeline.process(jar, dir);
+            pipeline.process(jar, dir.resolve("out.chasm"));
+            pipeline.process(jar, dir.resolve("cached.chasm"));
+        } finally {
+            Pipeline.setCache(null);
+        }
+        assertTrue(Files.isRegularFile(dir.resolve("test/B.class")));
+        assertTrue(new String(Files.readAllBytes(dir.resolve("out.chasm")), StandardCharsets.UTF_8).startsWith(SOURCE.substring(0, 40)));
+        assertTrue(Arrays.equals(Files.readAllBytes(dir.resolve("out.chasm")), Files.readAllBytes(dir.resolve("cached.chasm"))));
+    }
+
+    private static String print(final ClassNode node, final int flags) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ClassPrinter printer = new ClassPrinter(out, null, flags);
+        node.accept(printer.write());
+        printer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void aliasExceptionsTest() throws IOException {
+        // Class files do not distinguish an empty throws list from a missing one, class nodes do
+        final ClassNode node = new ClassNode();
+        new ClassParser(new StringReader("(class 52 (public super) test/C null java/lang/Object ()\n"
+                                         + " (method (public) a \"()V\" null null (code (return) (maxs 0 1)))\n"
+                                         + " (method (public) b \"()V\" null () (code (return) (maxs 0 1))))")).read(node);
+        final String printed = print(node, 0);
+        assertTrue(printed.contains("b \"()V\" null ()"));
+        assertEquals(printed, print(node, Pipeline.ALIASES));
+    }
+
+    @Test
+    public void budgetTest() throws IOException, ReflectiveOperationException {
+        // The chasm inputs exceed the budget and are streamed, the in-memory jar does not fit at all
+        final MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.bind(budget);
+        try {
+            merge(Pipeline.Duplicates.LAST);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("memory budget of 100 bytes"));
+        } finally {
+            MemoryBudget.bind(null);
+        }
+        assertEquals(0, budget.getUsed());
+    }
+}
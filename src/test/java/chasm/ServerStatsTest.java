@@ -0,0 +1,21 @@
+package chasm;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ServerStatsTest {
+    @Test
+    public void percentileTest() {
+        final ServerStats stats = new ServerStats();
+        final ServerStats.Latency l = stats.command("jar-chasm");
+        for (int i = 1; i <= 100; ++i)
+            l.record(i * 1000, i > 98);
+        assertEquals(100, l.getCount());
+        assertEquals(2, l.getErrors());
+        assertEquals(100000, l.getMax());
+        assertTrue(l.percentile(0.5) >= 50000 && l.percentile(0.5) < 50000 * 5 / 4);
+        assertTrue(l.percentile(0.99) >= 99000 && l.percentile(0.99) <= 100000);
+        assertTrue(stats.toJson(0).contains("\"jar-chasm\": {\"count\": 100, \"errors\": 2,"));
+    }
+}
@@ -0,0 +1,53 @@
+package chasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class WatcherTest {
+    private static final String SOURCE =
+        "(class 52 (public super) test/A null java/lang/Object ()\n"
+        + " (method (public static) get \"()I\" null null (code (bipush 42) (ireturn) (maxs 1 0))))\n"
+        + "(class 52 (public super) test/B null test/A ())\n";
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    // Runs the watcher until the given class file appears and returns its log
+    private String watch(final Path input, final Path output, final String cls) throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final Thread thread = new Thread(() -> {
+                try {
+                    new Watcher(new Pipeline(0, System.err), input, output, new PrintStream(log, true)).run();
+                } catch (IOException e) {
+                    // Interrupted
+                }
+            });
+        thread.start();
+        try {
+            for (int i = 0; i < 100 && !Files.exists(output.resolve(cls)); ++i)
+                Thread.sleep(100);
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+        return new String(log.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void crlfTest() throws Exception {
+        final Path input = tmp.newFolder("src").toPath();
+        final Path output = tmp.getRoot().toPath().resolve("out");
+        Files.write(input.resolve("a.chasm"), SOURCE.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals("Assembled test/A\nAssembled test/B\n", watch(input, output, "test/B.class").replace(System.lineSeparator(), "\n"));
+        assertTrue(Files.exists(output.resolve("test/A.class")));
+    }
+}